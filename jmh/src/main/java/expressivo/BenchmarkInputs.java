@@ -0,0 +1,120 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generated expressions for the benchmarks, by shape, size and number of variables.
+ *
+ * <p>The leaves alternate between variables, taken in turn, and numbers near 1,
+ * so that no term is zero and no factor is one, and parsing the text of an
+ * input gives back an equal expression, and so that values stay finite when
+ * inputs are simplified.
+ *
+ * <p>The class and Shape are public because the code JMH generates for a
+ * Shape parameter is in another package.
+ */
+public final class BenchmarkInputs {
+
+    private static final double[] NUMBERS = { 0.5, 1.5, 2, 2.5 };
+
+    /**
+     * How the leaves of an input are combined, which sets its depth.
+     */
+    public enum Shape {
+        /** ((a * 0.5 + b) * 1.5 + c) * ...: depth about equal to size. */
+        LEFT_DEEP,
+        /** halves combined recursively, alternating + and * by level: depth about log2(size). */
+        BALANCED,
+        /** one sum of products of two leaves: depth 3, however large. */
+        WIDE_SUM
+    }
+
+    private BenchmarkInputs() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param shape how to combine the leaves
+     * @param size number of leaves, at least 2
+     * @param variables number of distinct variables, at least 1
+     * @return an expression of the shape, with size leaves and the given number of variables
+     */
+    static Expression expression(Shape shape, int size, int variables) {
+        switch (shape) {
+        case LEFT_DEEP: {
+            Expression expression = leaf(0, variables);
+            for (int i = 1; i < size; i++) {
+                expression = i % 2 == 1
+                        ? ExpressionFactory.multiply(expression, leaf(i, variables))
+                        : ExpressionFactory.add(expression, leaf(i, variables));
+            }
+            return expression;
+        }
+        case BALANCED:
+            return balanced(0, size, variables, true);
+        case WIDE_SUM: {
+            Expression[] terms = new Expression[size / 2];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = ExpressionFactory.multiply(leaf(2 * i, variables), leaf(2 * i + 1, variables));
+            }
+            return ExpressionFactory.add(terms);
+        }
+        default:
+            throw new AssertionError("unknown shape " + shape);
+        }
+    }
+
+    /**
+     * @param variables number of distinct variables
+     * @return the name of each of them
+     */
+    static String[] variableNames(int variables) {
+        String[] names = new String[variables];
+        for (int v = 0; v < variables; v++) {
+            names[v] = name(v);
+        }
+        return names;
+    }
+
+    /**
+     * @param variables number of distinct variables
+     * @return environment binding every other variable, starting with the first, to a value
+     */
+    static Map<String, Double> halfEnvironment(int variables) {
+        Map<String, Double> environment = new HashMap<>();
+        for (int v = 0; v < variables; v += 2) {
+            environment.put(name(v), 0.75 + 0.5 * (v % 3));
+        }
+        return environment;
+    }
+
+    // Leaves first .. first + count - 1, combined by halves
+    private static Expression balanced(int first, int count, int variables, boolean sum) {
+        if (count == 1) {
+            return leaf(first, variables);
+        }
+        int half = count / 2;
+        Expression left = balanced(first, half, variables, !sum);
+        Expression right = balanced(first + half, count - half, variables, !sum);
+        return sum ? ExpressionFactory.add(left, right) : ExpressionFactory.multiply(left, right);
+    }
+
+    // The i-th leaf: a variable for even i, a number for odd i
+    private static Expression leaf(int i, int variables) {
+        if (i % 2 == 0) {
+            return ExpressionFactory.variable(name(i / 2 % variables));
+        }
+        return ExpressionFactory.number(NUMBERS[i / 2 % NUMBERS.length]);
+    }
+
+    // Name of variable v: a, b, ..., z, ba, bb, ...
+    private static String name(int v) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char) ('a' + v % 26));
+            v /= 26;
+        } while (v > 0);
+        return name.toString();
+    }
+}
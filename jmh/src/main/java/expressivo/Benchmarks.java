@@ -0,0 +1,54 @@
+package expressivo;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, which reports the allocation
+ * rate and bytes allocated per operation alongside the time, and writes the
+ * results as JSON, so that a run can be compared with a baseline run.
+ *
+ * <p>Run with: java -jar jmh/target/benchmarks.jar [JMH options] [benchmark regex]
+ * <br>The results go to jmh-result.json unless -rff gives another file; for
+ * example, -p shape=BALANCED -p size=256 ExpressionBenchmarks.parse runs one
+ * benchmark on one input.
+ */
+public class Benchmarks {
+
+    /**
+     * Run the benchmarks.
+     * @param args JMH command line options and benchmark patterns; see -h, and -l or -lp
+     *        to list the benchmarks instead of running them
+     * @throws RunnerException if a benchmark fails
+     * @throws CommandLineOptionException if args are not valid JMH options
+     * @throws IOException if the help for -h cannot be written
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .build();
+        Runner runner = new Runner(options);
+        if (commandLine.shouldList()) {
+            runner.list();
+        } else if (commandLine.shouldListWithParams()) {
+            runner.listWithParams(commandLine);
+        } else {
+            runner.run();
+        }
+    }
+}
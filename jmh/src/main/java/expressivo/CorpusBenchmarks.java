@@ -0,0 +1,67 @@
+package expressivo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to parse each line of a generated corpus in turn, directly and through a
+ * ParseCache, by repetition rate of the corpus and size of the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CorpusBenchmarks {
+
+    private static final int LINES = 1 << 14;
+
+    /** probability that a line repeats an earlier one */
+    @Param({ "0", "0.5", "0.9" })
+    public double repetition;
+
+    /** most entries of the cache */
+    @Param({ "256", "4096" })
+    public int cacheSize;
+
+    private String[] lines;
+    private ParseCache cache;
+    private int next;
+
+    /**
+     * Generate the corpus, with 10 to 200 nodes a line and 8 variables.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        CorpusGenerator generator = CorpusGenerator.builder()
+                .seed(1).nodes(10, 200).variables(8).repetition(repetition).build();
+        lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = generator.text(i);
+        }
+        cache = new ParseCache(cacheSize);
+    }
+
+    @Benchmark
+    public Expression parse() {
+        return Expression.parse(lines[next++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public Expression parseCached() {
+        return cache.parse(lines[next++ & (LINES - 1)]);
+    }
+}
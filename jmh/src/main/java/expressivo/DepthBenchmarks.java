@@ -0,0 +1,83 @@
+package expressivo;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per operation on LEFT_DEEP inputs by depth, up to far deeper than the
+ * call stack could recurse, for the paths that keep their place on an explicit
+ * stack. The Commands paths print the derivative as a tree, which for these
+ * inputs is quadratic in depth, so they are measured only by
+ * ExpressionBenchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DepthBenchmarks {
+
+    private static final int VARIABLES = 8;
+
+    /** depth of the input, about equal to its number of leaves */
+    @Param({ "1024", "16384", "131072" })
+    public int depth;
+
+    private Expression expression;
+    private Expression copy;
+    private String text;
+    private Map<String, Double> environment;
+
+    /**
+     * Make the input, an equal copy that shares no nodes with it, and its text.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        expression = BenchmarkInputs.expression(BenchmarkInputs.Shape.LEFT_DEEP, depth, VARIABLES);
+        copy = BenchmarkInputs.expression(BenchmarkInputs.Shape.LEFT_DEEP, depth, VARIABLES);
+        text = expression.toString();
+        environment = BenchmarkInputs.halfEnvironment(VARIABLES);
+        if (!Expression.parse(text).equals(expression) || copy == expression) {
+            throw new IllegalStateException("bad input for depth " + depth);
+        }
+    }
+
+    @Benchmark
+    public Expression parse() {
+        return Expression.parse(text);
+    }
+
+    @Benchmark
+    public String print() {
+        return expression.toString();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return expression.equals(copy);
+    }
+
+    @Benchmark
+    public Expression differentiate() {
+        return expression.differentiate("a");
+    }
+
+    @Benchmark
+    public Expression simplify() {
+        return expression.simplify(environment);
+    }
+}
@@ -0,0 +1,109 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per point of evaluating a polynomial at many points: with the
+ * tree-walking interpreter, Expression.evaluate(), with the bytecode compiled
+ * by ExpressionCompiler, and column-at-a-time with ColumnEvaluator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EvaluateBenchmarks {
+
+    private static final String POLYNOMIAL =
+            "3 * x * x * y + 2.5 * x * y * z + (x + 1) * (y + 2) * (z + 3) + 0.5 * z * z + 7 * w * x + w";
+
+    private static final int POINTS = 1 << 16;
+
+    private Expression expression;
+    private CompiledExpression compiled;
+    private ColumnEvaluator columnar;
+    private List<Map<String, Double>> environments;
+    private double[][] arrays;
+    private double[][] columns;
+    private double[] output;
+
+    /**
+     * Make the evaluators, and the same random points for each: as environments, as one
+     * array per point, and as one column per variable.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        expression = Expression.parse(POLYNOMIAL);
+        compiled = ExpressionCompiler.compile(expression);
+        columnar = new ColumnEvaluator(expression);
+        List<String> variables = compiled.variables();
+
+        Random random = new Random(42);
+        environments = new ArrayList<>(POINTS);
+        arrays = new double[POINTS][variables.size()];
+        columns = new double[variables.size()][POINTS];
+        for (int p = 0; p < POINTS; p++) {
+            Map<String, Double> environment = new HashMap<>();
+            for (int v = 0; v < variables.size(); v++) {
+                arrays[p][v] = random.nextDouble();
+                environment.put(variables.get(v), arrays[p][v]);
+                columns[columnar.variables().indexOf(variables.get(v))][p] = arrays[p][v];
+            }
+            environments.add(environment);
+        }
+        output = new double[POINTS];
+        if (interpreter() != compiled() || interpreter() != columns()) {
+            throw new IllegalStateException("results differ");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double interpreter() {
+        double sum = 0;
+        for (Map<String, Double> environment : environments) {
+            sum += expression.evaluate(environment);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double compiled() {
+        double sum = 0;
+        for (double[] point : arrays) {
+            sum += compiled.evaluate(point);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double columns() {
+        columnar.evaluate(columns, output, POINTS);
+        double sum = 0;
+        for (double value : output) {
+            sum += value;
+        }
+        return sum;
+    }
+}
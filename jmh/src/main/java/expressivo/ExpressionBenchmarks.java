@@ -0,0 +1,98 @@
+package expressivo;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per operation of the main paths of the expression system: parsing,
+ * printing, equality and hashing, differentiation, and the string-based
+ * Commands, on inputs of each shape, size and number of variables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ExpressionBenchmarks {
+
+    @Param({ "LEFT_DEEP", "BALANCED", "WIDE_SUM" })
+    public BenchmarkInputs.Shape shape;
+
+    /** number of leaves */
+    @Param({ "16", "256", "1024" })
+    public int size;
+
+    /** number of distinct variables */
+    @Param({ "1", "8" })
+    public int variables;
+
+    private Expression expression;
+    private Expression copy;
+    private String text;
+    private String variable;
+    private Map<String, Double> environment;
+
+    /**
+     * Make the input, an equal copy that shares no nodes with it, and its text.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        expression = BenchmarkInputs.expression(shape, size, variables);
+        copy = BenchmarkInputs.expression(shape, size, variables);
+        text = expression.toString();
+        variable = BenchmarkInputs.variableNames(variables)[0];
+        environment = BenchmarkInputs.halfEnvironment(variables);
+        if (!Expression.parse(text).equals(expression) || copy == expression) {
+            throw new IllegalStateException("bad input for " + shape + " " + size + " " + variables);
+        }
+    }
+
+    @Benchmark
+    public Expression parse() {
+        return Expression.parse(text);
+    }
+
+    @Benchmark
+    public String print() {
+        return expression.toString();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return expression.equals(copy);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return expression.hashCode();
+    }
+
+    @Benchmark
+    public Expression differentiate() {
+        return expression.differentiate(variable);
+    }
+
+    @Benchmark
+    public String commandsDifferentiate() {
+        return Commands.differentiate(text, variable);
+    }
+
+    @Benchmark
+    public String commandsSimplify() {
+        return Commands.simplify(text, environment);
+    }
+}
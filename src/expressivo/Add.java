@@ -1,28 +1,48 @@
 package expressivo;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /*
  * An immutable data type representing an expression
- * that is the sum of two expressions.
+ * that is the sum of two or more expressions.
  */
 public class Add implements Expression {
-    private final Expression left;
-    private final Expression right;
+    private final Expression[] operands;
+    private final long fingerprint;
+    private final long size;
+    private final int depth;
     
     // Abstraction function
-    //   represents the sum of the expressions this.left and this.right
+    //   represents the sum operands[0] + operands[1] + ... + operands[n-1],
+    //   where n = operands.length
     // Representation invariant
-    //   both left and right are non-null
+    //   operands.length >= 2, and all operands are non-null
+    //   fingerprint, size and depth are those of the operands combined, as
+    //   computed by the constructor
     // Safety from rep exposure
-    //   all fields are private and final
+    //   all fields are private and final;
+    //   operands is copied on construction and never returned
     
     /**
      * Make an Add.
-     * @param left the left expression
-     * @param right the right expression
+     * @param operands the expressions to add, at least two, in order
      */
-    public Add(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+    public Add(Expression... operands) {
+        this.operands = operands.clone();
+        long size = 1;
+        int depth = 0;
+        for (Expression operand : this.operands) {
+            size += operand.size();
+            if (size < 0) {
+                size = Long.MAX_VALUE;
+            }
+            depth = Math.max(depth, operand.depth());
+        }
+        this.fingerprint = Fingerprints.add(this.operands);
+        this.size = size;
+        this.depth = depth + 1;
         checkRep();
     }
     
@@ -31,31 +51,111 @@ public class Add implements Expression {
      * @throws AssertionError if the representation invariant is violated
      */
     private void checkRep() {
-        assert left != null;
-        assert right != null;
+        assert operands.length >= 2;
+        for (Expression operand : operands) {
+            assert operand != null;
+        }
+    }
+    
+    /**
+     * @return number of operands of this sum, at least 2
+     */
+    int arity() {
+        return operands.length;
+    }
+    
+    /**
+     * @param i index of an operand, 0 <= i < arity()
+     * @return the i-th operand of this sum
+     */
+    Expression operand(int i) {
+        return operands[i];
     }
 
     @Override 
     public String toString() {
-        return "(" + left.toString() + " + " + right.toString() + ")";
+        // One pass into one builder, rather than a string for every subtree
+        return ExpressionPrinter.toString(this);
     }
     
     @Override 
     public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
         if (!(thatObject instanceof Add)) return false;
-        Add that = (Add) thatObject;
-        return this.left.equals(that.left) && this.right.equals(that.right);
+        // Compare node by node on an explicit stack, at any depth
+        return Traversal.equal(this, (Add) thatObject);
     }
     
     @Override 
     public int hashCode() {
-        return left.hashCode() + right.hashCode();
+        return Fingerprints.hash(fingerprint);
+    }
+    
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+    
+    @Override
+    public long size() {
+        return size;
+    }
+    
+    @Override
+    public int depth() {
+        return depth;
     }
 
     @Override
     public Expression differentiate(String var) {
-        // The derivative of a sum is the sum of the derivatives
-        return new Add(left.differentiate(var), right.differentiate(var));
+        // Differentiate each distinct subtree once, sharing its derivative
+        return Differentiator.differentiate(this, var);
+    }
+
+    @Override
+    public double evaluate(Map<String, Double> environment) {
+        // Evaluate on an explicit stack, at any depth
+        return Traversal.evaluate(this, environment);
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        // Simplify each distinct subtree once, on an explicit stack, at any depth
+        return Traversal.simplify(this, environment);
+    }
+
+    /**
+     * @param simplifiedOperands the operands of this sum, each simplified, in order
+     * @return this sum simplified, as defined by Expression.simplify(), given its
+     *         simplified operands
+     */
+    Expression simplify(Expression[] simplifiedOperands) {
+        // Fold the numbers among the simplified operands into one constant term, placed last
+        List<Expression> terms = new ArrayList<>(operands.length);
+        double constant = 0;
+        boolean changed = false;
+        int constants = 0;
+        for (int i = 0; i < operands.length; i++) {
+            Expression simplified = simplifiedOperands[i];
+            changed |= simplified != operands[i];
+            if (simplified instanceof Number) {
+                constant += ((Number) simplified).value();
+                // already folded only if it is the one number, in its place
+                changed |= ++constants > 1 || i != operands.length - 1;
+            } else {
+                terms.add(simplified);
+            }
+        }
+        if (!changed && (constants == 0 || constant != 0)) {
+            return this;
+        }
+        if (constant != 0 || terms.isEmpty()) {
+            terms.add(ExpressionFactory.constant(constant));
+        }
+        if (terms.size() == 1) {
+            return terms.get(0);
+        }
+        return ExpressionFactory.add(terms.toArray(new Expression[terms.size()]));
     }
     
    
@@ -0,0 +1,113 @@
+package expressivo;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import expressivo.parser.ExpressionLexer;
+import expressivo.parser.ExpressionParser;
+
+/**
+ * The ANTLR-generated lexer and parser, reused for every parse on one thread.
+ *
+ * <p>A parse first tries SLL prediction, bailing out at the first error, which
+ * is enough for nearly all input. Only if that fails is the input parsed again
+ * with full LL prediction and the usual error reporting. The parser does not
+ * build a parse tree: BuildExpr listens to the parser as it runs.
+ */
+final class AntlrParser {
+
+    private static final ThreadLocal<AntlrParser> PARSERS = ThreadLocal.withInitial(AntlrParser::new);
+
+    // Throws a ParseCancellationException for the first syntax error
+    private static final ANTLRErrorListener THROWING_LISTENER = new BaseErrorListener() {
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                int line, int charPositionInLine, String msg, RecognitionException e) {
+            throw new ParseCancellationException(msg, e);
+        }
+    };
+
+    private final ExpressionLexer lexer;
+    private CommonTokenStream tokens;
+    private final ExpressionParser parser;
+    private final BuildExpr builder;
+    private final BailErrorStrategy bail = new BailErrorStrategy();
+    private final DefaultErrorStrategy recover = new DefaultErrorStrategy();
+
+    // Abstraction function
+    //   represents an ANTLR pipeline from input string to Expression,
+    //   lexer -> tokens -> parser, with builder listening to the parser
+    // Representation invariant
+    //   tokens reads from lexer, builder is the only parse listener of parser
+    // Safety from rep exposure
+    //   all fields are private; instances are confined to their thread by PARSERS
+
+    private AntlrParser() {
+        lexer = new ExpressionLexer(null);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(THROWING_LISTENER);
+        parser = new ExpressionParser(null);
+        parser.setBuildParseTree(false);
+        builder = new BuildExpr();
+        parser.addParseListener(builder);
+    }
+
+    /**
+     * Parse an expression with this thread's ANTLR parser.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parse(String input) {
+        return PARSERS.get().parseInput(input);
+    }
+
+    private Expression parseInput(String input) {
+        try {
+            lexer.setInputStream(new ANTLRInputStream(input));
+            // a new token stream, because setTokenSource() does not forget that the old one reached EOF
+            tokens = new CommonTokenStream(lexer);
+            try {
+                // Stage 1: SLL prediction, giving up on the first error
+                return run(input, PredictionMode.SLL);
+            } catch (ParseCancellationException e) {
+                // Stage 2: full LL prediction, reporting errors as exceptions
+                return run(input, PredictionMode.LL);
+            }
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid expression: " + input, e);
+        } catch (StackOverflowError e) {
+            // the generated parser recurses once per level of nesting
+            throw new IllegalArgumentException("Expression nested too deeply for the ANTLR parser", e);
+        } finally {
+            builder.reset(null);
+        }
+    }
+
+    private Expression run(String input, PredictionMode mode) {
+        parser.removeErrorListeners();
+        if (mode == PredictionMode.SLL) {
+            parser.setErrorHandler(bail);
+        } else {
+            parser.setErrorHandler(recover);
+            parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            parser.addErrorListener(THROWING_LISTENER);
+        }
+        parser.setTokenStream(tokens);
+        // rewinds the tokens and resets the error handler, so it must come after setErrorHandler()
+        parser.reset();
+        parser.getInterpreter().setPredictionMode(mode);
+        builder.reset(input);
+        parser.root();
+        return builder.getExpression();
+    }
+}
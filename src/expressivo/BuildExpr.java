@@ -1,30 +1,46 @@
 package expressivo;
 
-import java.util.List;
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
-import expressivo.parser.ExpressionLexer;
 import expressivo.parser.ExpressionListener;
 import expressivo.parser.ExpressionParser;
 
+/*
+ * Builds an Expression from the events of a parse, either by walking a parse tree
+ * or by listening to an ExpressionParser that does not build one.
+ * Each sum and product records the height of the stack on entry, so it can find
+ * its children on exit without looking at the children of its context.
+ */
 class BuildExpr implements ExpressionListener {
-    private Stack<Expression> stack = new Stack<>();
+    private final Deque<Expression> stack = new ArrayDeque<>();
+    private int[] marks = new int[16];
+    private int markCount = 0;
+    private CharSequence input;
+    
     /**
      * Returns the epxression constructed by this listener object
      * @return Expression for the parse tree
      */
     public Expression getExpression(){
-        return stack.get(0);
+        assert stack.size() == 1;
+        return stack.peek();
+    }
+    
+    /**
+     * Discard any partial result, so this listener can be used for another parse.
+     * @param input the characters that the next parse reads
+     */
+    public void reset(CharSequence input) {
+        this.input = input;
+        stack.clear();
+        markCount = 0;
     }
     
     @Override public void enterRoot(ExpressionParser.RootContext context) {
@@ -34,56 +50,52 @@ class BuildExpr implements ExpressionListener {
     }
 
     @Override public void enterSum(ExpressionParser.SumContext context) {
+        mark();
     }
     
     @Override public void exitSum(ExpressionParser.SumContext context) {
         // matched the product ('+' product)* rule
-        List<ExpressionParser.ProductContext> terms = context.product();
-        assert stack.size() >= terms.size();
-        // the pattern must have at least 1 child 
-        // pop the last child
-        assert terms.size() > 0;
-        Expression sum = stack.pop();
-        // pop the older children, one by one, and add them on
-        for (int i = 1; i < terms.size(); i++) {
-            sum = Expression.sum(stack.pop(), sum);
+        // the pattern has at least 1 child, all pushed since enterSum
+        Expression[] children = popToMark();
+        if (children.length == 0) {
+            // the parser is unwinding after a syntax error
+            return;
         }
         // the result is this subtree's Expression
-        stack.push(sum);
+        stack.push(Expression.sum(Arrays.asList(children)));
     }
     
     @Override public void enterProduct(ExpressionParser.ProductContext context) {
+        mark();
     }
     
     @Override public void exitProduct(ExpressionParser.ProductContext context) {
-        // matched the product ('+' product)* rule
-        List<ExpressionParser.PrimitiveContext> factors = context.primitive();
-        assert stack.size() >= factors.size();
-        // the pattern must have at least 1 child 
-        // pop the last child
-        assert factors.size() > 0;
-        Expression product = stack.pop();
-        // pop the older children, one by one, and multiply them on
-        for (int i = 1; i < factors.size(); i++){
-            product = Expression.times(stack.pop(), product);
+        // matched the primitive ('*' primitive)* rule
+        // the pattern has at least 1 child, all pushed since enterProduct
+        Expression[] children = popToMark();
+        if (children.length == 0) {
+            // the parser is unwinding after a syntax error
+            return;
         }
         // the result is this subtree's Expression
-        stack.push(product);
+        stack.push(Expression.times(Arrays.asList(children)));
     }
     
     @Override public void enterPrimitive(ExpressionParser.PrimitiveContext context) {
     }
     
     @Override public void exitPrimitive(ExpressionParser.PrimitiveContext context) {
-        if (context.NUMBER() != null){
+        // decode the token from the input, rather than through Token.getText()
+        Token token = context.getStart();
+        if (token.getType() == ExpressionParser.NUMBER){
             // matched the number alternative
-            double n = Double.valueOf(context.NUMBER().getText());
-            Expression number = new Number(n);
+            double n = Lexemes.number(input, token.getStartIndex(), token.getStopIndex() + 1);
+            Expression number = ExpressionFactory.number(n);
             stack.push(number);
-        } else if(context.VARIABLE() != null){
+        } else if(token.getType() == ExpressionParser.VARIABLE){
             // matched the VAR alternative
-            String v = context.VARIABLE().getText();
-            Expression var = new Variable(v);
+            String v = Lexemes.variable(input, token.getStartIndex(), token.getStopIndex() + 1);
+            Expression var = ExpressionFactory.variable(v);
             stack.push(var);
         }
     }
@@ -98,5 +110,22 @@ class BuildExpr implements ExpressionListener {
     }
     
     @Override public void visitErrorNode(ErrorNode node) { 
-    }       
-}
\ No newline at end of file
+    }
+    
+    // Record the current height of the stack
+    private void mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * marks.length);
+        }
+        marks[markCount++] = stack.size();
+    }
+    
+    // Pop the expressions pushed since the last mark, in the order they were pushed
+    private Expression[] popToMark() {
+        Expression[] children = new Expression[stack.size() - marks[--markCount]];
+        for (int i = children.length - 1; i >= 0; i--) {
+            children[i] = stack.pop();
+        }
+        return children;
+    }
+}
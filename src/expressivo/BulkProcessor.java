@@ -0,0 +1,361 @@
+package expressivo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+/**
+ * Parses and transforms files of newline-delimited expressions on all cores.
+ *
+ * <p>The input file is memory-mapped in chunks that end on line boundaries.
+ * Each chunk goes through a parse stage and then a transform stage on a
+ * shared thread pool, and a single writer appends the results to the output
+ * file in input order, one line per input line. A bounded queue between the
+ * splitter and the writer limits the number of chunks in flight.
+ *
+ * <p>A line that fails to parse or transform, including one nested too deeply for
+ * the stack, produces an empty output line, and is reported in the Report
+ * returned by process(); it does not stop the job.
+ */
+public class BulkProcessor {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final int threads;
+    private final int chunkSize;
+
+    // Abstraction function
+    //   represents a processor that runs on threads worker threads, reading
+    //   chunks of about chunkSize bytes
+    // Representation invariant
+    //   threads >= 1, chunkSize >= 1
+    // Safety from rep exposure
+    //   all fields are private, final and immutable
+
+    /**
+     * Make a BulkProcessor using one worker thread per available processor.
+     */
+    public BulkProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Make a BulkProcessor.
+     * @param threads number of worker threads, >= 1
+     * @param chunkSize number of bytes of input to process as one unit of work, >= 1;
+     *        chunks are extended to the end of a line if it is longer
+     */
+    public BulkProcessor(int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parse every line of input, transform it, and write the results to output.
+     * @param input file of newline-delimited expressions, in ASCII
+     * @param output file to create or overwrite; line i is transform applied to the
+     *        expression on line i of input, or empty if that failed
+     * @param transform operation to apply to each parsed expression
+     * @return a report of the errors and the throughput of the job
+     * @throws IOException if input cannot be read or output cannot be written
+     */
+    public Report process(Path input, Path output, UnaryOperator<Expression> transform) throws IOException {
+        final long startTime = System.nanoTime();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final BlockingQueue<CompletableFuture<Chunk>> inFlight = new ArrayBlockingQueue<>(2 * threads);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+            final long size = channel.size();
+            Thread splitter = new Thread(() -> split(channel, size, pool, transform, inFlight), "BulkProcessor-splitter");
+            splitter.setDaemon(true);
+            splitter.start();
+            try {
+                return write(inFlight, out, size, startTime);
+            } finally {
+                splitter.interrupt();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * Map the file chunk by chunk, and queue each chunk's pipeline in input order,
+     * followed by Chunk.END. A failure is queued as a failed future.
+     */
+    private void split(FileChannel channel, long size, ExecutorService pool,
+            UnaryOperator<Expression> transform, BlockingQueue<CompletableFuture<Chunk>> inFlight) {
+        try {
+            long position = 0;
+            while (position < size) {
+                ByteBuffer bytes = mapLines(channel, position, size);
+                position += bytes.remaining();
+                inFlight.put(CompletableFuture.supplyAsync(() -> parseChunk(bytes), pool)
+                        .thenApplyAsync(chunk -> transformChunk(chunk, transform), pool));
+            }
+            inFlight.put(CompletableFuture.completedFuture(Chunk.END));
+        } catch (InterruptedException ie) {
+            // the writer has given up
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Chunk> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                inFlight.put(failed);
+            } catch (InterruptedException ie) {
+                // the writer has given up
+            }
+        }
+    }
+
+    /*
+     * Map the bytes from position up to and including the last newline within chunkSize bytes,
+     * growing the window if no newline is found, or up to size if the window reaches it.
+     */
+    private ByteBuffer mapLines(FileChannel channel, long position, long size) throws IOException {
+        long window = chunkSize;
+        while (true) {
+            long length = Math.min(window, Math.min(size - position, Integer.MAX_VALUE));
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (position + length == size) {
+                return mapped;
+            }
+            for (int i = (int) length - 1; i >= 0; i--) {
+                if (mapped.get(i) == '\n') {
+                    mapped.limit(i + 1);
+                    return mapped;
+                }
+            }
+            if (length == Integer.MAX_VALUE) {
+                throw new IOException("line longer than " + Integer.MAX_VALUE + " bytes at offset " + position);
+            }
+            window *= 2;
+        }
+    }
+
+    // Parse stage: one expression or error per line
+    private static Chunk parseChunk(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Chunk chunk = new Chunk();
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length && start == bytes.length) {
+                break;
+            }
+            if (i == bytes.length || bytes[i] == '\n') {
+                int end = (i > start && bytes[i - 1] == '\r') ? i - 1 : i;
+                String line = new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+                try {
+                    chunk.expressions.add(DirectParser.parse(line));
+                } catch (IllegalArgumentException e) {
+                    chunk.expressions.add(null);
+                    chunk.addError(chunk.expressions.size() - 1, e.getMessage());
+                } catch (StackOverflowError e) {
+                    // a line nested too deeply fails alone, not its chunk and the job
+                    chunk.expressions.add(null);
+                    chunk.addError(chunk.expressions.size() - 1, e.getClass().getName());
+                }
+                start = i + 1;
+            }
+        }
+        return chunk;
+    }
+
+    // Transform stage: the output lines of the chunk
+    private static Chunk transformChunk(Chunk chunk, UnaryOperator<Expression> transform) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < chunk.expressions.size(); line++) {
+            Expression expression = chunk.expressions.get(line);
+            if (expression != null) {
+                try {
+                    text.append(transform.apply(expression).toString());
+                } catch (RuntimeException | StackOverflowError e) {
+                    chunk.addError(line, e.getClass().getName() + ": " + e.getMessage());
+                }
+            }
+            text.append('\n');
+        }
+        chunk.lineCount = chunk.expressions.size();
+        chunk.expressions = null;
+        chunk.output = text.toString().getBytes(StandardCharsets.US_ASCII);
+        return chunk;
+    }
+
+    // Write stage: append the chunks' output in input order, and collect the report
+    private static Report write(BlockingQueue<CompletableFuture<Chunk>> inFlight, OutputStream out,
+            long size, long startTime) throws IOException {
+        long lines = 0;
+        long errorCount = 0;
+        List<LineError> errors = new ArrayList<>();
+        try {
+            while (true) {
+                Chunk chunk = inFlight.take().join();
+                if (chunk == Chunk.END) {
+                    break;
+                }
+                out.write(chunk.output);
+                errorCount += chunk.errorLines.size();
+                for (int i = 0; i < chunk.errorLines.size() && errors.size() < MAX_REPORTED_ERRORS; i++) {
+                    errors.add(new LineError(lines + chunk.errorLines.get(i) + 1, chunk.errorMessages.get(i)));
+                }
+                lines += chunk.lineCount;
+            }
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("interrupted while writing");
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof IOException) {
+                throw (IOException) ce.getCause();
+            }
+            throw ce;
+        }
+        out.flush();
+        return new Report(lines, errorCount, errors, size, System.nanoTime() - startTime);
+    }
+
+    /*
+     * A chunk of input lines as it moves through the pipeline.
+     * Confined to one thread at a time, handed over through futures.
+     */
+    private static class Chunk {
+        static final Chunk END = new Chunk();
+
+        List<Expression> expressions = new ArrayList<>();
+        int lineCount;
+        byte[] output;
+        final List<Integer> errorLines = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+
+        void addError(int line, String message) {
+            errorLines.add(line);
+            errorMessages.add(message);
+        }
+    }
+
+    /**
+     * An immutable report of an input line that could not be processed.
+     */
+    public static class LineError {
+        private final long line;
+        private final String message;
+
+        LineError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * @return 1-based line number in the input file
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * @return description of the error
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+
+    /**
+     * An immutable summary of a completed job.
+     */
+    public static class Report {
+        private final long lines;
+        private final long errorCount;
+        private final List<LineError> errors;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Report(long lines, long errorCount, List<LineError> errors, long bytes, long elapsedNanos) {
+            this.lines = lines;
+            this.errorCount = errorCount;
+            this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of lines read
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * @return number of lines that could not be processed
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * @return the first errors, in input order, at most 100 of them
+         */
+        public List<LineError> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return number of bytes read
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return wall-clock time of the job, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return lines processed per second
+         */
+        public double linesPerSecond() {
+            return lines * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * @return megabytes (10^6 bytes) read per second
+         */
+        public double megabytesPerSecond() {
+            return bytes * 1e3 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d lines, %d errors, %.1f MB in %.3f s (%.0f lines/s, %.1f MB/s)",
+                    lines, errorCount, bytes / 1e6, elapsedNanos / 1e9, linesPerSecond(), megabytesPerSecond());
+        }
+    }
+}
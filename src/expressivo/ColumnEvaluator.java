@@ -0,0 +1,351 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an expression over a batch of points given as columns.
+ *
+ * <p>The values of each variable at all the points are one contiguous double[]
+ * column, and the results are written to an output column. Rather than walking
+ * the tree once per point, the evaluator walks it once, when it is made, into a
+ * list of column operations, then runs each operation over a block of points at
+ * a time: a sum adds whole columns of its operands, and a product multiplies
+ * them. The operations are simple counted loops over arrays, which the JIT
+ * compiles to SIMD instructions where the processor has them. Intermediate
+ * columns are one block long, so they stay in cache however many points there are.
+ *
+ * <p>Each distinct node of the expression is computed once per block, into a block
+ * register that is reused once the node's last user has read it, so an expression
+ * with shared subtrees, such as a derivative, costs time proportional to its
+ * distinct nodes, and a deep expression needs few registers.
+ *
+ * <p>A ColumnEvaluator is immutable, and may be used by several threads at once;
+ * each thread evaluates in its own registers, which are kept between calls.
+ */
+public final class ColumnEvaluator {
+
+    /** Number of points evaluated by each pass over the operations. */
+    static final int BLOCK = 1024;
+
+    // Operations, each writing into the block register dst:
+    //   LOAD_*     dst := operand
+    //   ADD_*      dst := dst + operand
+    //   MULTIPLY_* dst := dst * operand
+    // where the operand is a constant, a variable column, or another block register
+    private static final int LOAD_CONSTANT = 0;
+    private static final int LOAD_COLUMN = 1;
+    private static final int LOAD_REGISTER = 2;
+    private static final int ADD_CONSTANT = 3;
+    private static final int ADD_COLUMN = 4;
+    private static final int ADD_REGISTER = 5;
+    private static final int MULTIPLY_CONSTANT = 6;
+    private static final int MULTIPLY_COLUMN = 7;
+    private static final int MULTIPLY_REGISTER = 8;
+
+    private final Expression expression;
+    private final List<String> variables;
+    private final int[] operations;
+    private final double[] constants;
+    private final int result;
+    private final ThreadLocal<double[][]> blocks;
+
+    // Abstraction function
+    //   represents expression, evaluated at point p by running operations in order
+    //   on block registers, with variables.get(i) read from column i at p;
+    //   the value is left in register result
+    // Representation invariant
+    //   variables are the distinct variables of expression, in order of first appearance
+    //   operations is a sequence of triples (opcode, dst, arg), where arg indexes
+    //     constants for *_CONSTANT, variables for *_COLUMN, and the registers for *_REGISTER,
+    //     and arg != dst for *_REGISTER
+    //   blocks gives each thread its own registers, each BLOCK long, at least one more than
+    //     any register operations use; they are scratch space, not part of the value
+    // Safety from rep exposure
+    //   all fields are private and final; variables is unmodifiable, and the arrays
+    //   are never returned
+
+    /**
+     * Make an evaluator for an expression.
+     * @param expression expression to evaluate
+     */
+    public ColumnEvaluator(Expression expression) {
+        Map<String, Integer> slots = Variables.slots(expression);
+        this.expression = expression;
+        this.variables = Collections.unmodifiableList(new ArrayList<>(slots.keySet()));
+        Planner planner = new Planner(slots);
+        this.result = planner.plan(expression);
+        this.operations = planner.operations();
+        this.constants = planner.constants();
+        final int registers = planner.registers;
+        this.blocks = ThreadLocal.withInitial(() -> new double[registers][BLOCK]);
+    }
+
+    /**
+     * @return the expression this evaluates
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables of the expression, in the order their columns are given to evaluate()
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * Evaluate the expression at points 0..length-1.
+     * @param columns columns[i][p] is the value of variables().get(i) at point p;
+     *        may have more columns than variables(), and longer columns than length
+     * @param output receives the value of the expression at point p in output[p]
+     * @param length number of points, nonnegative
+     * @throws IllegalArgumentException if there are fewer columns than variables,
+     *         or a column or output is shorter than length
+     */
+    public void evaluate(double[][] columns, double[] output, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length: " + length);
+        }
+        if (columns.length < variables.size()) {
+            throw new IllegalArgumentException("Expected " + variables.size() + " columns, got " + columns.length);
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            if (columns[i].length < length) {
+                throw new IllegalArgumentException("Column for " + variables.get(i) + " is shorter than " + length);
+            }
+        }
+        if (output.length < length) {
+            throw new IllegalArgumentException("Output is shorter than " + length);
+        }
+        double[][] block = blocks.get();
+        for (int start = 0; start < length; start += BLOCK) {
+            int n = Math.min(BLOCK, length - start);
+            run(columns, block, start, n);
+            System.arraycopy(block[result], 0, output, start, n);
+        }
+    }
+
+    /**
+     * Evaluate the expression at a batch of points.
+     * @param columns maps each variable of the expression to its values at the points;
+     *        all its columns have the same length
+     * @return column of the values of the expression at the points; if the expression has
+     *         no variables, at the number of points given by the columns, or at one point
+     *         if there are no columns
+     * @throws IllegalArgumentException if a variable of the expression has no column,
+     *         or the columns differ in length
+     */
+    public double[] evaluate(Map<String, double[]> columns) {
+        int length = -1;
+        for (double[] column : columns.values()) {
+            if (length >= 0 && column.length != length) {
+                throw new IllegalArgumentException("Columns differ in length");
+            }
+            length = column.length;
+        }
+        double[][] ordered = new double[variables.size()][];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = columns.get(variables.get(i));
+            if (ordered[i] == null) {
+                throw new IllegalArgumentException("No column for variable: " + variables.get(i));
+            }
+        }
+        double[] output = new double[Math.max(length, columns.isEmpty() ? 1 : 0)];
+        evaluate(ordered, output, output.length);
+        return output;
+    }
+
+    // Run the operations on points start..start+n-1, leaving the result in block[result][0..n-1]
+    private void run(double[][] columns, double[][] block, int start, int n) {
+        for (int pc = 0; pc < operations.length; pc += 3) {
+            double[] dst = block[operations[pc + 1]];
+            int arg = operations[pc + 2];
+            switch (operations[pc]) {
+            case LOAD_CONSTANT:
+                fill(dst, constants[arg], n);
+                break;
+            case LOAD_COLUMN:
+                System.arraycopy(columns[arg], start, dst, 0, n);
+                break;
+            case LOAD_REGISTER:
+                System.arraycopy(block[arg], 0, dst, 0, n);
+                break;
+            case ADD_CONSTANT:
+                addConstant(dst, constants[arg], n);
+                break;
+            case ADD_COLUMN:
+                add(dst, columns[arg], start, n);
+                break;
+            case ADD_REGISTER:
+                add(dst, block[arg], 0, n);
+                break;
+            case MULTIPLY_CONSTANT:
+                multiplyConstant(dst, constants[arg], n);
+                break;
+            case MULTIPLY_COLUMN:
+                multiply(dst, columns[arg], start, n);
+                break;
+            case MULTIPLY_REGISTER:
+                multiply(dst, block[arg], 0, n);
+                break;
+            default:
+                throw new AssertionError("unknown operation " + operations[pc]);
+            }
+        }
+    }
+
+    /*
+     * Column kernels. Each is a counted loop with no dependence between iterations,
+     * the form the JIT's superword optimization turns into vector instructions.
+     */
+
+    private static void fill(double[] dst, double value, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] = value;
+        }
+    }
+
+    private static void addConstant(double[] dst, double value, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] += value;
+        }
+    }
+
+    private static void add(double[] dst, double[] src, int offset, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] += src[offset + i];
+        }
+    }
+
+    private static void multiplyConstant(double[] dst, double value, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] *= value;
+        }
+    }
+
+    private static void multiply(double[] dst, double[] src, int offset, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] *= src[offset + i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnEvaluator" + variables + ": " + expression;
+    }
+
+    /*
+     * Translates an expression into operations, computing each distinct sum or product
+     * once, in postorder, into a register that is freed after its last use. A node is
+     * computed in the register of its first operand when that is the operand's last use.
+     */
+    private static class Planner {
+        private final Map<String, Integer> slots;
+        private final List<Integer> operations = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        // registers of computed sums and products, and how many uses of each are still to come
+        private final Map<Expression, Integer> register = new IdentityHashMap<>();
+        private final Map<Expression, Integer> remaining = new IdentityHashMap<>();
+        private final List<Integer> free = new ArrayList<>();
+        int registers = 0;
+
+        Planner(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+
+        // Emit operations computing expression; return the register left holding its value
+        int plan(Expression expression) {
+            List<Expression> nodes = new ArrayList<>();
+            for (Traversal.Postorder all = new Traversal.Postorder(expression, true); all.hasNext(); ) {
+                Expression node = all.next();
+                if (Traversal.arity(node) > 0) {
+                    nodes.add(node);
+                    for (int i = 0; i < Traversal.arity(node); i++) {
+                        remaining.merge(Traversal.operand(node, i), 1, Integer::sum);
+                    }
+                }
+            }
+            if (nodes.isEmpty()) {
+                int dst = allocate();
+                combine(expression, dst, LOAD_CONSTANT, LOAD_COLUMN, LOAD_REGISTER);
+                return dst;
+            }
+            for (Expression node : nodes) {
+                boolean isAdd = node instanceof Add;
+                Expression first = Traversal.operand(node, 0);
+                int dst;
+                if (Traversal.arity(first) > 0 && remaining.get(first) == 1) {
+                    // the first operand is not needed again: compute in its register
+                    remaining.put(first, 0);
+                    dst = register.get(first);
+                } else {
+                    dst = allocate();
+                    combine(first, dst, LOAD_CONSTANT, LOAD_COLUMN, LOAD_REGISTER);
+                }
+                for (int i = 1; i < Traversal.arity(node); i++) {
+                    combine(Traversal.operand(node, i), dst,
+                            isAdd ? ADD_CONSTANT : MULTIPLY_CONSTANT,
+                            isAdd ? ADD_COLUMN : MULTIPLY_COLUMN,
+                            isAdd ? ADD_REGISTER : MULTIPLY_REGISTER);
+                }
+                register.put(node, dst);
+            }
+            return register.get(expression);
+        }
+
+        // Emit the operation combining the value of operand into register dst, and free the
+        // register of operand after its last use
+        private void combine(Expression operand, int dst, int withConstant, int withColumn, int withRegister) {
+            if (operand instanceof Number) {
+                emit(withConstant, dst, constant(((Number) operand).value()));
+            } else if (operand instanceof Variable) {
+                emit(withColumn, dst, slots.get(((Variable) operand).name()));
+            } else {
+                int src = register.get(operand);
+                emit(withRegister, dst, src);
+                if (remaining.merge(operand, -1, Integer::sum) == 0) {
+                    free.add(src);
+                }
+            }
+        }
+
+        private int allocate() {
+            if (!free.isEmpty()) {
+                return free.remove(free.size() - 1);
+            }
+            return registers++;
+        }
+
+        private int constant(double value) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        private void emit(int opcode, int dst, int arg) {
+            operations.add(opcode);
+            operations.add(dst);
+            operations.add(arg);
+        }
+
+        int[] operations() {
+            int[] array = new int[operations.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = operations.get(i);
+            }
+            return array;
+        }
+
+        double[] constants() {
+            double[] array = new double[constants.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = constants.get(i);
+            }
+            return array;
+        }
+    }
+}
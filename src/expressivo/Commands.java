@@ -28,19 +28,49 @@ public class Commands {
         // Parse the expression string into an Expression object
         Expression expression = Expression.parse(expressionStr);
         
-        // Differentiate the expression
-        Expression differentiated = expression.differentiate(var);
-        
-        // Return the differentiated expression as a string
-        return differentiated.toString();
+        // Differentiate the expression, and return it as a string
+        return differentiate(expression, var).toString();
+    }
+
+    /**
+     * Differentiate an expression with respect to a variable, without parsing or printing it.
+     * @param expression the expression to differentiate
+     * @param var the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return expression's derivative with respect to var, as Expression.differentiate()
+     */
+    public static Expression differentiate(Expression expression, String var) {
+        return expression.differentiate(var);
     }
 
-    // Simplify command (not relevant to differentiation, but you might already have it)
+    /**
+     * Simplify an expression.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
+     *         strings of letters.  The set of variables in environment is allowed to be different than the 
+     *         set of variables actually found in expression.  Values must be nonnegative numbers.
+     * @return an expression equal to the input, but after substituting every variable v that appears in both
+     *         the expression and the environment with its value, environment.get(v), and folding the
+     *         constants of each sum and product.  If there are no variables left in this expression after
+     *         substitution, it is evaluated to a single number.
+     * @throws IllegalArgumentException if the expression is invalid, or a value is negative or not finite
+     */
     public static String simplify(String expressionStr, Map<String, Double> environment) {
-        // You can implement simplification logic here
-        // This example doesn't change the current expression; it's just a placeholder
-        return expressionStr;
+        // Parse the expression string into an Expression object
+        Expression expression = Expression.parse(expressionStr);
+        
+        // Substitute the values and fold the constants, and return it as a string
+        return simplify(expression, environment).toString();
     }
 
-    
+    /**
+     * Simplify an expression, without parsing or printing it.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @return an expression equal to the input after substitution and folding, as for
+     *         simplify(String, Map)
+     * @throws IllegalArgumentException if a value is negative or not finite
+     */
+    public static Expression simplify(Expression expression, Map<String, Double> environment) {
+        return expression.simplify(environment);
+    }
 }
@@ -0,0 +1,210 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression with its common subexpressions eliminated: every set of
+ * structurally equal subtrees is replaced by one shared node, so the
+ * expression becomes a DAG of distinct nodes.
+ *
+ * <p>The pass visits each node of the input once, finding equal subtrees by
+ * their structural fingerprints, so an input that is already partly shared
+ * costs time proportional to its distinct nodes, not to its size as a tree.
+ * Evaluation and printing then compute each distinct node once, and
+ * differentiation differentiates each distinct node once.
+ *
+ * <p>The compression ratio is the size of the expression as a tree over its
+ * number of distinct nodes: how many times each node is used on average.
+ */
+public final class CommonSubexpressions {
+    private final Expression expression;
+    private final Expression[] nodes;
+    private final int[][] operands;
+
+    // Abstraction function
+    //   represents expression, a DAG whose distinct nodes are nodes, in an order in which
+    //   the operands of a node come before it and the last node is expression;
+    //   operands[i] are the indices in nodes of the operands of nodes[i], in order
+    // Representation invariant
+    //   no two nodes are equal; every index in operands[i] is less than i
+    //   operands[i] is empty for numbers and variables
+    //   nodes[nodes.length - 1] == expression
+    // Safety from rep exposure
+    //   all fields are private and final, and no array is returned;
+    //   the nodes are immutable
+
+    private CommonSubexpressions(Expression expression, Expression[] nodes, int[][] operands) {
+        this.expression = expression;
+        this.nodes = nodes;
+        this.operands = operands;
+    }
+
+    /**
+     * Eliminate the common subexpressions of an expression.
+     * @param expression an expression
+     * @return expression with each set of equal subtrees shared as one node
+     */
+    public static CommonSubexpressions of(Expression expression) {
+        Eliminator eliminator = new Eliminator();
+        Expression shared = eliminator.share(expression);
+        Expression[] nodes = eliminator.nodes.toArray(new Expression[eliminator.nodes.size()]);
+        int[][] operands = eliminator.operands.toArray(new int[eliminator.operands.size()][]);
+        return new CommonSubexpressions(shared, nodes, operands);
+    }
+
+    /**
+     * @return the expression, equal to the one this was made from, in which equal subtrees
+     *         are the same object
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * @return number of nodes of the expression as a tree, as Expression.size()
+     */
+    public long size() {
+        return expression.size();
+    }
+
+    /**
+     * @return number of distinct nodes of the expression, at least 1
+     */
+    public int distinctNodes() {
+        return nodes.length;
+    }
+
+    /**
+     * @return size() / distinctNodes(), at least 1
+     */
+    public double compressionRatio() {
+        return (double) size() / nodes.length;
+    }
+
+    /**
+     * Evaluate the expression, computing each distinct node once.
+     * @param environment maps variables to their values
+     * @return the value of the expression, equal to expression().evaluate(environment)
+     * @throws IllegalArgumentException if a variable of the expression has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Expression node = nodes[i];
+            if (node instanceof Add) {
+                double sum = 0;
+                for (int operand : operands[i]) {
+                    sum += values[operand];
+                }
+                values[i] = sum;
+            } else if (node instanceof Multiply) {
+                double product = 1;
+                for (int operand : operands[i]) {
+                    product *= values[operand];
+                }
+                values[i] = product;
+            } else {
+                values[i] = node.evaluate(environment);
+            }
+        }
+        return values[nodes.length - 1];
+    }
+
+    /**
+     * Differentiate the expression, differentiating each distinct node once.
+     * @param var the variable with respect to which the expression is to be differentiated
+     * @return the derivative, equal to expression().differentiate(var), with its common
+     *         subexpressions eliminated
+     */
+    public CommonSubexpressions differentiate(String var) {
+        return of(expression.differentiate(var));
+    }
+
+    /**
+     * @return a one-line report of the size, distinct nodes and compression ratio
+     */
+    public String statistics() {
+        return String.format("%d nodes, %d distinct (%.1fx compression)", size(), nodes.length, compressionRatio());
+    }
+
+    /**
+     * Print the expression, printing each distinct node once and reusing its text
+     * wherever it occurs.
+     * @return expression().toString()
+     */
+    @Override
+    public String toString() {
+        String[] texts = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Expression node = nodes[i];
+            if (node instanceof Add || node instanceof Multiply) {
+                String separator = node instanceof Add ? " + " : " * ";
+                StringBuilder builder = new StringBuilder("(");
+                for (int j = 0; j < operands[i].length; j++) {
+                    if (j > 0) {
+                        builder.append(separator);
+                    }
+                    builder.append(texts[operands[i][j]]);
+                }
+                texts[i] = builder.append(")").toString();
+            } else {
+                texts[i] = node.toString();
+            }
+        }
+        return texts[nodes.length - 1];
+    }
+
+    /*
+     * Rebuilds an expression bottom-up, replacing each node by the first node found
+     * equal to it, and recording the distinct nodes in order.
+     */
+    private static class Eliminator {
+        final List<Expression> nodes = new ArrayList<>();
+        final List<int[]> operands = new ArrayList<>();
+        // equal nodes are found by fingerprint, the hash code of every node, and their operands
+        // are already shared, so comparing them is a reference check per operand
+        private final Map<Expression, Integer> index = new HashMap<>();
+        private final Map<Expression, Expression> visited = new IdentityHashMap<>();
+
+        // Return the shared node equal to expression, visiting each distinct object once
+        Expression share(Expression expression) {
+            for (Traversal.Postorder all = new Traversal.Postorder(expression, true); all.hasNext(); ) {
+                Expression node = all.next();
+                int arity = Traversal.arity(node);
+                Expression candidate = node;
+                int[] children = new int[arity];
+                if (arity > 0) {
+                    Expression[] sharedOperands = new Expression[arity];
+                    boolean unchanged = true;
+                    for (int i = 0; i < arity; i++) {
+                        Expression operand = Traversal.operand(node, i);
+                        sharedOperands[i] = visited.get(operand);
+                        children[i] = index.get(sharedOperands[i]);
+                        unchanged &= sharedOperands[i] == operand;
+                    }
+                    if (!unchanged) {
+                        candidate = node instanceof Add
+                                ? ExpressionFactory.add(sharedOperands)
+                                : ExpressionFactory.multiply(sharedOperands);
+                    }
+                }
+                Integer existing = index.get(candidate);
+                Expression shared;
+                if (existing != null) {
+                    shared = nodes.get(existing);
+                } else {
+                    index.put(candidate, nodes.size());
+                    nodes.add(candidate);
+                    operands.add(children);
+                    shared = candidate;
+                }
+                visited.put(node, shared);
+            }
+            return visited.get(expression);
+        }
+    }
+}
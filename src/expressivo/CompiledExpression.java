@@ -0,0 +1,134 @@
+package expressivo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Expression compiled for fast repeated evaluation, made by ExpressionCompiler.
+ *
+ * <p>The variables of the expression are numbered in order of first appearance,
+ * and a point is given as an array of their values in that order.
+ */
+public final class CompiledExpression {
+
+    /**
+     * The code of a compiled expression.
+     * Public only so that classes generated in another class loader can implement it.
+     */
+    public interface Code {
+        /**
+         * @param values values of the variables, indexed by slot
+         * @return the value of the expression at values
+         */
+        double evaluate(double[] values);
+    }
+
+    /**
+     * The forward-mode code of a compiled expression.
+     * Public only so that classes generated in another class loader can implement it.
+     */
+    public interface DualCode {
+        /**
+         * @param values values of the variables, indexed by slot
+         * @param tangents rates of change of the variables, indexed by slot
+         * @param result receives the value of the expression at values in result[0], and its
+         *        derivative along tangents in result[1]
+         */
+        void evaluate(double[] values, double[] tangents, double[] result);
+    }
+
+    private final Expression expression;
+    private final List<String> variables;
+    private final Code code;
+    private final DualCode dualCode;
+    private final boolean generated;
+
+    // Abstraction function
+    //   represents expression, evaluated by code, and with its derivative by dualCode,
+    //   with variables.get(i) read from slot i of their arguments
+    // Representation invariant
+    //   variables are the distinct variables of expression, in order of first appearance
+    //   generated is true iff code is a class generated by ExpressionCompiler
+    // Safety from rep exposure
+    //   all fields are private and final; variables is unmodifiable
+
+    CompiledExpression(Expression expression, List<String> variables, Code code, DualCode dualCode,
+            boolean generated) {
+        this.expression = expression;
+        this.variables = Collections.unmodifiableList(variables);
+        this.code = code;
+        this.dualCode = dualCode;
+        this.generated = generated;
+    }
+
+    /**
+     * @return the expression that was compiled
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables of the expression, in slot order
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * @return true if the expression was compiled to JVM bytecode, false if it was too large
+     *         and is evaluated by an interpreter instead
+     */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    /**
+     * Evaluate the expression at a point.
+     * @param values values of the variables, in the order of variables(); may be longer
+     * @return the value of the expression
+     * @throws ArrayIndexOutOfBoundsException if values is shorter than variables()
+     */
+    public double evaluate(double[] values) {
+        return code.evaluate(values);
+    }
+
+    /**
+     * Evaluate the expression at a point.
+     * @param environment maps variables to their values
+     * @return the value of the expression, equal to expression().evaluate(environment)
+     * @throws IllegalArgumentException if a variable of the expression has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[variables.size()];
+        for (int i = 0; i < values.length; i++) {
+            Double value = environment.get(variables.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable: " + variables.get(i));
+            }
+            values[i] = value;
+        }
+        return code.evaluate(values);
+    }
+
+    /**
+     * Evaluate the expression and its derivative along a direction at a point, in one pass,
+     * by forward-mode automatic differentiation; see ForwardMode.
+     * @param values values of the variables, in the order of variables(); may be longer
+     * @param tangents rates of change of the variables along the direction, in the order of
+     *        variables(); may be longer
+     * @param result receives the value of the expression in result[0], and its derivative
+     *        along tangents in result[1]
+     * @throws ArrayIndexOutOfBoundsException if values or tangents is shorter than variables(),
+     *         or result is shorter than 2
+     */
+    public void evaluateDual(double[] values, double[] tangents, double[] result) {
+        dualCode.evaluate(values, tangents, result);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledExpression" + variables + ": " + expression;
+    }
+}
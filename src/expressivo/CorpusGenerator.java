@@ -0,0 +1,582 @@
+package expressivo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates reproducible corpora of random expressions, for benchmarks,
+ * stress tests and sizing caches.
+ *
+ * <p>A generator is a pure function from an index to an expression: expression i
+ * depends only on the settings, the seed and i, so any part of a corpus can be
+ * regenerated on its own, and a corpus can be generated on many threads and
+ * still come out the same. The settings control
+ * <ul>
+ * <li>the number of nodes of each expression, drawn uniformly from a range;
+ * <li>the maximum depth, and the maximum number of operands of a sum or product;
+ * <li>the spine fraction: the probability that a sum or product puts all but one
+ *     of its operands in leaves, which makes expressions deeper and narrower;
+ * <li>the number of distinct variables, a, b, ..., z, ba, bb, ...;
+ * <li>the fraction of leaves that are numbers, the largest number, and the fraction
+ *     of numbers that have decimals rather than being whole;
+ * <li>the repetition rate: the probability that expression i is a copy of an
+ *     earlier expression of the corpus, chosen uniformly, so that expressions that
+ *     are already repeated are repeated more, as in real inputs to a cache.
+ * </ul>
+ *
+ * <p>Numbers are never 0 or 1, which parsing would drop from a sum or product, so
+ * the text of every generated expression parses to an equal expression.
+ * Generation keeps its place on an explicit stack, so expressions of any size and
+ * depth can be generated.
+ */
+public final class CorpusGenerator {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    // salts that keep the random choices for expression i apart from each other
+    private static final long SHAPE = 0;
+    private static final long REPEAT = 1;
+    // bytes of text per task when writing a corpus on several threads
+    private static final int CHUNK_SIZE = 4 << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    private final long seed;
+    private final int minNodes;
+    private final int maxNodes;
+    private final int maxDepth;
+    private final int maxFanOut;
+    private final double spine;
+    private final String[] variables;
+    private final double constants;
+    private final int maxConstant;
+    private final double decimals;
+    private final double repetition;
+
+    // Abstraction function
+    //   represents the corpus whose expression i, for every i >= 0, is generated from a
+    //   random stream seeded by seed and i, with the settings of the Builder that made it;
+    //   variables are the names its variables are drawn from
+    // Representation invariant
+    //   1 <= minNodes <= maxNodes, maxDepth >= 1, maxFanOut >= 2, variables.length >= 1,
+    //   2 <= maxConstant <= MAX_CONSTANT, and spine, constants, decimals and repetition
+    //   are in [0, 1]
+    // Safety from rep exposure
+    //   all fields are private and final; variables is never returned
+
+    private CorpusGenerator(Builder builder) {
+        this.seed = builder.seed;
+        this.minNodes = builder.minNodes;
+        this.maxNodes = builder.maxNodes;
+        this.maxDepth = builder.maxDepth;
+        this.maxFanOut = builder.maxFanOut;
+        this.spine = builder.spine;
+        this.variables = new String[builder.variables];
+        for (int v = 0; v < variables.length; v++) {
+            variables[v] = name(v);
+        }
+        this.constants = builder.constants;
+        this.maxConstant = builder.maxConstant;
+        this.decimals = builder.decimals;
+        this.repetition = builder.repetition;
+    }
+
+    /**
+     * @return a builder with the default settings: seed 0, 1 to 100 nodes, no depth limit,
+     *         at most 4 operands, no spine, 3 variables, half of the leaves numbers up to 10,
+     *         half of them with decimals, and no repetition
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param index position in the corpus, >= 0
+     * @return expression index of the corpus: equal to expression(j) if it repeats
+     *         expression j < index; otherwise a new expression with a number of
+     *         nodes in [minNodes, maxNodes], except that a tree whose number of nodes does not
+     *         fit the maximum fan-out has one node fewer, and a tree that would be deeper than
+     *         the maximum depth is cut short there
+     */
+    public Expression expression(long index) {
+        Tree tree = new Tree();
+        generate(index, tree);
+        return tree.result();
+    }
+
+    /**
+     * @param index position in the corpus, >= 0
+     * @return the text of expression(index), as Expression.toString(), which parses to an
+     *         equal expression
+     */
+    public String text(long index) {
+        StringBuilder text = new StringBuilder();
+        generate(index, new Text(text));
+        return text.toString();
+    }
+
+    /**
+     * Write the first lines expressions of the corpus to a file, one per line, generating
+     * them on one thread per available processor. The text is generated directly, without
+     * making the expressions.
+     * @param output file to create or overwrite; line i is text(i), in ASCII
+     * @param lines number of expressions to write, >= 0
+     * @return number of bytes written
+     * @throws IOException if output cannot be written
+     */
+    public long write(Path output, long lines) throws IOException {
+        if (lines < 0) {
+            throw new IllegalArgumentException("lines must be non-negative: " + lines);
+        }
+        final int threads = Runtime.getRuntime().availableProcessors();
+        // each task generates about CHUNK_SIZE bytes, assuming about 8 characters per node
+        final long linesPerChunk = Math.max(1, CHUNK_SIZE / (8L * maxNodes));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        long bytes = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), OUTPUT_BUFFER_SIZE)) {
+            for (long first = 0; first < lines || !inFlight.isEmpty(); ) {
+                if (first < lines && inFlight.size() < 2 * threads) {
+                    final long start = first;
+                    final long end = Math.min(lines, first + linesPerChunk);
+                    inFlight.add(CompletableFuture.supplyAsync(() -> chunk(start, end), pool));
+                    first = end;
+                    continue;
+                }
+                byte[] chunk = inFlight.remove().join();
+                out.write(chunk);
+                bytes += chunk.length;
+            }
+        } catch (CompletionException ce) {
+            throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+        } finally {
+            pool.shutdownNow();
+        }
+        return bytes;
+    }
+
+    // The text of expressions first .. end - 1, each followed by a newline
+    private byte[] chunk(long first, long end) {
+        StringBuilder text = new StringBuilder();
+        Text sink = new Text(text);
+        for (long i = first; i < end; i++) {
+            generate(i, sink);
+            text.append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // The index of the expression that expression index is a copy of, or index itself
+    private long original(long index) {
+        while (index > 0) {
+            SplittableRandom random = random(index, REPEAT);
+            if (random.nextDouble() >= repetition) {
+                break;
+            }
+            index = random.nextLong(index);
+        }
+        return index;
+    }
+
+    // The random stream for one kind of choice about expression index
+    private SplittableRandom random(long index, long salt) {
+        return new SplittableRandom(mix(seed + GOLDEN_GAMMA * (2 * index + salt + 1)));
+    }
+
+    // A 64-bit finalizer, so that nearby seeds give unrelated streams
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    // Generate expression index into sink
+    private void generate(long index, Sink sink) {
+        if (index < 0) {
+            throw new IllegalArgumentException("index must be non-negative: " + index);
+        }
+        SplittableRandom random = random(original(index), SHAPE);
+        int nodes = minNodes + random.nextInt(maxNodes - minNodes + 1);
+        generate(nodes == 2 ? (maxNodes > 2 ? 3 : 1) : nodes, random, sink);
+    }
+
+    /*
+     * Generates a tree top-down, on an explicit stack of the sums and products whose
+     * operands are being generated, passing each node to sink as it is reached.
+     */
+    private void generate(int nodes, SplittableRandom random, Sink sink) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        open(nodes, 1, random, frames, sink);
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            if (frame.next < frame.sizes.length) {
+                if (frame.next > 0) {
+                    sink.separator(frame.add);
+                }
+                open(frame.sizes[frame.next++], frame.depth + 1, random, frames, sink);
+                continue;
+            }
+            frames.pop();
+            sink.close(frame.add, frame.sizes.length);
+        }
+    }
+
+    // Generate a leaf, or start a sum or product, of about nodes nodes at depth
+    private void open(int nodes, int depth, SplittableRandom random, Deque<Frame> frames, Sink sink) {
+        if (nodes == 1 || depth >= maxDepth) {
+            leaf(random, sink);
+            return;
+        }
+        Frame frame = new Frame(random.nextBoolean(), split(nodes - 1, random), depth);
+        frames.push(frame);
+        sink.open(frame.add);
+    }
+
+    // Sizes of the operands of a node with nodes - 1 == total nodes below it, total >= 2;
+    // no operand has 2 nodes, since no sum or product has one operand, and with a fan-out
+    // of 2 every operand has an odd number of nodes, as every binary tree does
+    private int[] split(int total, SplittableRandom random) {
+        if (maxFanOut == 2 && total % 2 == 1) {
+            total--;
+        }
+        int widest = Math.min(maxFanOut, total);
+        int arity = 2 + random.nextInt(widest - 1);
+        if (total - arity == 1) {
+            if (arity < widest) {
+                arity++;
+            } else if (arity > 2) {
+                arity--;
+            } else {
+                total--;
+            }
+        }
+        // nodes beyond one per operand, shared out with no operand getting exactly one
+        int excess = total - arity;
+        int[] extra = new int[arity];
+        if (random.nextDouble() < spine) {
+            extra[random.nextInt(arity)] = excess;
+        } else {
+            // arity - 1 sorted cuts of [0, excess] in extra[0 .. arity - 2], then the gaps
+            // between them, working down so that each gap is taken before its cut is replaced
+            for (int i = 0; i < arity - 1; i++) {
+                int cut = random.nextInt(excess + 1);
+                int j = i;
+                for (; j > 0 && extra[j - 1] > cut; j--) {
+                    extra[j] = extra[j - 1];
+                }
+                extra[j] = cut;
+            }
+            extra[arity - 1] = excess - extra[arity - 2];
+            for (int i = arity - 2; i > 0; i--) {
+                extra[i] -= extra[i - 1];
+            }
+        }
+        if (maxFanOut == 2 && extra[0] % 2 == 1) {
+            extra[0]--;
+            extra[1]++;
+        }
+        for (int i = 0; i < arity; i++) {
+            if (extra[i] == 1) {
+                int j = (i + 1) % arity;
+                while (extra[j] == 0) {
+                    j = (j + 1) % arity;
+                }
+                extra[i] = 0;
+                extra[j]++;
+            }
+        }
+        for (int i = 0; i < arity; i++) {
+            extra[i]++;
+        }
+        return extra;
+    }
+
+    // A number or variable, by the leaf settings
+    private void leaf(SplittableRandom random, Sink sink) {
+        if (random.nextDouble() >= constants) {
+            sink.variable(variables[random.nextInt(variables.length)]);
+        } else if (random.nextDouble() < decimals) {
+            // strictly between two whole numbers, below maxConstant
+            sink.number(100 * random.nextInt(maxConstant) + 1 + random.nextInt(99));
+        } else {
+            sink.number(100 * (2 + random.nextInt(maxConstant - 1)));
+        }
+    }
+
+    // Name of variable v: a, b, ..., z, ba, bb, ...
+    private static String name(int v) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char) ('a' + v % 26));
+            v /= 26;
+        } while (v > 0);
+        return name.toString();
+    }
+
+    /*
+     * Receives the nodes of an expression as they are generated: each sum or product is
+     * opened, then its operands follow, with a separator between each two, then it is closed.
+     */
+    private interface Sink {
+        void variable(String name);
+        // a number given in hundredths, which is not a multiple of 100 for a number with decimals
+        void number(int hundredths);
+        void open(boolean add);
+        void separator(boolean add);
+        void close(boolean add, int arity);
+    }
+
+    /*
+     * Makes the expression, building each sum or product when its last operand is done.
+     */
+    private static final class Tree implements Sink {
+        private Expression[] done = new Expression[16];
+        private int top = 0;
+
+        @Override public void variable(String name) {
+            push(ExpressionFactory.variable(name));
+        }
+
+        @Override public void number(int hundredths) {
+            push(ExpressionFactory.number(hundredths / 100.0));
+        }
+
+        @Override public void open(boolean add) {
+        }
+
+        @Override public void separator(boolean add) {
+        }
+
+        @Override public void close(boolean add, int arity) {
+            top -= arity;
+            Expression[] operands = Arrays.copyOfRange(done, top, top + arity);
+            Arrays.fill(done, top, top + arity, null);
+            push(add ? ExpressionFactory.add(operands) : ExpressionFactory.multiply(operands));
+        }
+
+        Expression result() {
+            return done[0];
+        }
+
+        private void push(Expression expression) {
+            if (top == done.length) {
+                done = Arrays.copyOf(done, 2 * top);
+            }
+            done[top++] = expression;
+        }
+    }
+
+    /*
+     * Appends the text of the expression, as Expression.toString() would print it, without
+     * making it: numbers are printed as Double.toString() prints them at this size.
+     */
+    private static final class Text implements Sink {
+        private final StringBuilder text;
+
+        Text(StringBuilder text) {
+            this.text = text;
+        }
+
+        @Override public void variable(String name) {
+            text.append(name);
+        }
+
+        @Override public void number(int hundredths) {
+            int fraction = hundredths % 100;
+            text.append(hundredths / 100).append('.');
+            if (fraction % 10 == 0) {
+                text.append((char) ('0' + fraction / 10));
+            } else {
+                text.append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+            }
+        }
+
+        @Override public void open(boolean add) {
+            text.append('(');
+        }
+
+        @Override public void separator(boolean add) {
+            text.append(add ? " + " : " * ");
+        }
+
+        @Override public void close(boolean add, int arity) {
+            text.append(')');
+        }
+    }
+
+    /*
+     * A sum or product being generated: the sizes of its operands, the number of them
+     * generated so far, and its depth.
+     */
+    private static final class Frame {
+        final boolean add;
+        final int[] sizes;
+        final int depth;
+        int next = 0;
+
+        Frame(boolean add, int[] sizes, int depth) {
+            this.add = add;
+            this.sizes = sizes;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Settings for a CorpusGenerator. Each setter checks its arguments and returns this builder.
+     */
+    public static final class Builder {
+        /** largest number a generator can be set to use; larger ones print in scientific notation */
+        public static final int MAX_CONSTANT = 1_000_000;
+
+        private long seed = 0;
+        private int minNodes = 1;
+        private int maxNodes = 100;
+        private int maxDepth = Integer.MAX_VALUE;
+        private int maxFanOut = 4;
+        private double spine = 0;
+        private int variables = 3;
+        private double constants = 0.5;
+        private int maxConstant = 10;
+        private double decimals = 0.5;
+        private double repetition = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * @param seed seed of the corpus; generators with the same settings and seed
+         *        generate equal corpora
+         * @return this
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param min fewest nodes of an expression, >= 1
+         * @param max most nodes of an expression, >= min
+         * @return this
+         */
+        public Builder nodes(int min, int max) {
+            if (min < 1 || max < min) {
+                throw new IllegalArgumentException("need 1 <= min <= max, not " + min + " and " + max);
+            }
+            this.minNodes = min;
+            this.maxNodes = max;
+            return this;
+        }
+
+        /**
+         * @param maxDepth most levels of an expression, >= 1; a number or variable has 1
+         * @return this
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * @param maxFanOut most operands of a sum or product, >= 2
+         * @return this
+         */
+        public Builder maxFanOut(int maxFanOut) {
+            if (maxFanOut < 2) {
+                throw new IllegalArgumentException("maxFanOut must be at least 2: " + maxFanOut);
+            }
+            this.maxFanOut = maxFanOut;
+            return this;
+        }
+
+        /**
+         * @param spine probability in [0, 1] that all the operands of a sum or product
+         *        but one are numbers or variables
+         * @return this
+         */
+        public Builder spine(double spine) {
+            this.spine = probability("spine", spine);
+            return this;
+        }
+
+        /**
+         * @param variables number of distinct variable names, >= 1
+         * @return this
+         */
+        public Builder variables(int variables) {
+            if (variables < 1) {
+                throw new IllegalArgumentException("variables must be positive: " + variables);
+            }
+            this.variables = variables;
+            return this;
+        }
+
+        /**
+         * @param constants probability in [0, 1] that a leaf is a number rather than a variable
+         * @return this
+         */
+        public Builder constants(double constants) {
+            this.constants = probability("constants", constants);
+            return this;
+        }
+
+        /**
+         * @param maxConstant largest whole number, in [2, MAX_CONSTANT]; numbers with decimals
+         *        are below it
+         * @return this
+         */
+        public Builder maxConstant(int maxConstant) {
+            if (maxConstant < 2 || maxConstant > MAX_CONSTANT) {
+                throw new IllegalArgumentException("maxConstant must be in [2, " + MAX_CONSTANT + "]: " + maxConstant);
+            }
+            this.maxConstant = maxConstant;
+            return this;
+        }
+
+        /**
+         * @param decimals probability in [0, 1] that a number has two decimal places rather
+         *        than being a whole number
+         * @return this
+         */
+        public Builder decimals(double decimals) {
+            this.decimals = probability("decimals", decimals);
+            return this;
+        }
+
+        /**
+         * @param repetition probability in [0, 1] that an expression, other than the first,
+         *        repeats an earlier one
+         * @return this
+         */
+        public Builder repetition(double repetition) {
+            this.repetition = probability("repetition", repetition);
+            return this;
+        }
+
+        /**
+         * @return a generator with these settings
+         */
+        public CorpusGenerator build() {
+            return new CorpusGenerator(this);
+        }
+
+        private static double probability(String name, double value) {
+            if (!(value >= 0 && value <= 1)) {
+                throw new IllegalArgumentException(name + " must be in [0, 1]: " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package expressivo;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how much smaller derivatives are for being simplified as they are built.
+ *
+ * <p>For each derivative recorded, it counts the nodes of the derivative as a
+ * tree, and the nodes the same derivative would have had if it had been built
+ * by the sum and product rules alone, without simplification; the latter is
+ * computed from the expression, without building that derivative.
+ *
+ * <p>Safe for use by several threads at once.
+ */
+public final class DerivativeStatistics {
+    private final LongAdder derivatives = new LongAdder();
+    private final LongAdder unsimplifiedNodes = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+
+    // Abstraction function
+    //   represents a record of derivatives derivatives, which would have had
+    //   unsimplifiedNodes nodes in all without simplification, and have nodes nodes
+    // Representation invariant
+    //   all counts are nonnegative
+    // Safety from rep exposure
+    //   all fields are private and final, and only their sums are returned
+
+    /**
+     * Record a derivative.
+     * @param expression an expression
+     * @param var the variable with respect to which it was differentiated
+     * @param derivative expression.differentiate(var)
+     */
+    public void record(Expression expression, String var, Expression derivative) {
+        derivatives.increment();
+        unsimplifiedNodes.add(unsimplifiedSize(expression, var, new IdentityHashMap<>()));
+        nodes.add(derivative.size());
+    }
+
+    /**
+     * @return number of derivatives recorded
+     */
+    public long derivatives() {
+        return derivatives.sum();
+    }
+
+    /**
+     * @return total number of nodes the recorded derivatives would have had without simplification
+     */
+    public long unsimplifiedNodes() {
+        return unsimplifiedNodes.sum();
+    }
+
+    /**
+     * @return total number of nodes of the recorded derivatives
+     */
+    public long nodes() {
+        return nodes.sum();
+    }
+
+    /**
+     * @return fraction of the nodes removed by simplification, from 0 to 1,
+     *         or 0 if nothing has been recorded
+     */
+    public double reduction() {
+        long unsimplified = unsimplifiedNodes();
+        return unsimplified == 0 ? 0 : 1 - (double) nodes() / unsimplified;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d derivatives: %d nodes, %d without simplification (%.1f%% smaller)",
+                derivatives(), nodes(), unsimplifiedNodes(), 100 * reduction());
+    }
+
+    /*
+     * Number of nodes in the derivative of expression by the sum and product rules alone,
+     * saturating at Long.MAX_VALUE; sizes already found are in memo.
+     */
+    private static long unsimplifiedSize(Expression expression, String var, Map<Expression, Long> memo) {
+        // operands come before the sums and products that use them, so their sizes are in memo
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Add || node instanceof Multiply) {
+                memo.put(node, unsimplifiedNodeSize(node, memo));
+            }
+        }
+        return unsimplifiedSizeOf(expression, memo);
+    }
+
+    // Size found for expression, or 1 for a number or variable, whose derivative is a number
+    private static long unsimplifiedSizeOf(Expression expression, Map<Expression, Long> memo) {
+        Long size = memo.get(expression);
+        return size == null ? 1 : size;
+    }
+
+    // Size of the derivative of node, a sum or product whose operands' sizes are in memo
+    private static long unsimplifiedNodeSize(Expression node, Map<Expression, Long> memo) {
+        long size = 1;
+        int arity = Traversal.arity(node);
+        if (node instanceof Add) {
+            // a sum of the derivatives of the operands
+            for (int i = 0; i < arity; i++) {
+                size = saturatedAdd(size, unsimplifiedSizeOf(Traversal.operand(node, i), memo));
+            }
+        } else {
+            // a sum of products, each of all the operands but one, and the derivative of that one
+            long operands = 0;
+            for (int i = 0; i < arity; i++) {
+                operands = saturatedAdd(operands, Traversal.operand(node, i).size());
+            }
+            for (int i = 0; i < arity; i++) {
+                Expression operand = Traversal.operand(node, i);
+                long product = operands == Long.MAX_VALUE
+                        ? Long.MAX_VALUE
+                        : saturatedAdd(1, operands - operand.size());
+                size = saturatedAdd(size, saturatedAdd(product, unsimplifiedSizeOf(operand, memo)));
+            }
+        }
+        return size;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
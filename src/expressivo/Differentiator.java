@@ -0,0 +1,103 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * One differentiation pass over an expression, with respect to one variable.
+ *
+ * <p>A pass remembers the derivative of every node it has differentiated, by
+ * node identity, so a subtree that occurs in several places (as it does in the
+ * derivative of a product, whose factors are shared between its terms) is
+ * differentiated once, and all the places share its derivative. Sums and
+ * products are made by SimplifyingBuilder, so the derivative has no zero terms,
+ * unit factors or unfolded numbers left by the sum and product rules. A pass also
+ * shares the structurally equal sums and products it makes, as the product rule
+ * makes the same term along different paths. The result is a DAG, and the
+ * number of distinct nodes of the n-th derivative of a polynomial grows
+ * polynomially in n, even though its size as a tree grows exponentially.
+ *
+ * <p>A pass differentiates the distinct nodes in postorder, on an explicit stack,
+ * so expressions of any depth can be differentiated.
+ */
+final class Differentiator {
+    private final String var;
+    private final Map<Expression, Expression> derivatives = new IdentityHashMap<>();
+    private final Map<Expression, Expression> made = new HashMap<>();
+
+    // Abstraction function
+    //   represents a pass differentiating with respect to var, which has found that
+    //   the derivative of each key of derivatives is its value
+    // Representation invariant
+    //   var is non-null; for every entry of derivatives, value equals key.differentiate(var)
+    //   every entry of made maps a sum or product made by this pass to itself
+    // Safety from rep exposure
+    //   all fields are private, and the class is not exposed outside the package
+
+    private Differentiator(String var) {
+        this.var = var;
+    }
+
+    /**
+     * @param expression expression to differentiate
+     * @param var the variable with respect to which expression is to be differentiated
+     * @return the derivative of expression, as defined by Expression.differentiate(),
+     *         in which the derivatives of identical subtrees are the same object
+     */
+    static Expression differentiate(Expression expression, String var) {
+        Differentiator pass = new Differentiator(var);
+        // operands come before the sums and products that use them, so their derivatives are known
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Add) {
+                pass.derivatives.put(node, pass.sumRule((Add) node));
+            } else if (node instanceof Multiply) {
+                pass.derivatives.put(node, pass.productRule((Multiply) node));
+            }
+        }
+        return pass.derivative(expression);
+    }
+
+    // The derivative of expression, which is a number or variable, or has been differentiated
+    private Expression derivative(Expression expression) {
+        if (!(expression instanceof Add || expression instanceof Multiply)) {
+            return expression.differentiate(var);
+        }
+        return derivatives.get(expression);
+    }
+
+    // The derivative of a sum is the sum of the derivatives
+    private Expression sumRule(Add add) {
+        Expression[] terms = new Expression[add.arity()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = derivative(add.operand(i));
+        }
+        return share(SimplifyingBuilder.sum(terms));
+    }
+
+    // The derivative of a product is the sum, over each operand, of the product
+    // with that operand replaced by its derivative
+    private Expression productRule(Multiply multiply) {
+        Expression[] operands = new Expression[multiply.arity()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = multiply.operand(i);
+        }
+        Expression[] terms = new Expression[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            Expression[] factors = operands.clone();
+            factors[i] = derivative(operands[i]);
+            terms[i] = share(SimplifyingBuilder.product(factors));
+        }
+        return share(SimplifyingBuilder.sum(terms));
+    }
+
+    // Return the node made by this pass that is equal to node, or node if there is none
+    private Expression share(Expression node) {
+        if (!(node instanceof Add || node instanceof Multiply)) {
+            return node;
+        }
+        Expression existing = made.putIfAbsent(node, node);
+        return existing == null ? node : existing;
+    }
+}
@@ -0,0 +1,196 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hand-written operator-precedence parser for the Expression.g4 grammar:
+ *
+ *   root : sum EOF;
+ *   sum : product ('+' product)*;
+ *   product : primitive ('*' primitive)*;
+ *   primitive : NUMBER | VARIABLE | '(' sum ')';
+ *
+ * It builds the AST in a single pass over the input characters, without a
+ * token stream or parse tree, and produces the same AST as the ANTLR parser
+ * with BuildExpr. The sums and products still open are kept on an explicit
+ * stack rather than the call stack, so input of any nesting depth can be
+ * parsed. It reports only the position of the first error; callers wanting
+ * ANTLR's detailed error message should re-parse with
+ * Expression.parseWithAntlr().
+ */
+final class DirectParser {
+    private final String input;
+    private final int length;
+    private int position;
+    // the operands parsed so far of the sums and products still open, innermost last
+    private Expression[] operands = new Expression[16];
+    private int top = 0;
+    // for each open parenthesis, and the whole input at index 0: where on operands the
+    // terms of its sum, and the factors of its current product, begin
+    private int[] terms = new int[16];
+    private int[] factors = new int[16];
+    private int depth = 0;
+
+    // Abstraction function
+    //   represents a parse of input in which input[0..position) has been consumed, inside
+    //   depth - 1 open parentheses, where for each level i < depth the terms of its sum
+    //   parsed so far are operands[terms[i]..factors[i]), and the factors of its product
+    //   parsed so far are operands[factors[i]..terms[i + 1]), or ..top) for the innermost
+    // Representation invariant
+    //   input is non-null, length == input.length(), 0 <= position <= length
+    //   terms[0] == 0, terms[i] <= factors[i] <= terms[i + 1], factors[depth - 1] <= top
+    //   operands[top..] are null
+    // Safety from rep exposure
+    //   all fields are private, and the class is not exposed outside the package
+
+    private DirectParser(String input) {
+        this.input = input;
+        this.length = input.length();
+        this.position = 0;
+    }
+
+    /**
+     * Parse an expression.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input, equal to the one built by the ANTLR parser
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parse(String input) {
+        if (input == null) {
+            throw new IllegalArgumentException("Invalid expression: null");
+        }
+        return new DirectParser(input).parseRoot();
+    }
+
+    // root : sum EOF
+    private Expression parseRoot() {
+        open();
+        while (true) {
+            // primitive : NUMBER | VARIABLE | '(' sum ')'
+            skipSpaces();
+            if (position == length) {
+                throw error();
+            }
+            char c = input.charAt(position);
+            if (c == '(') {
+                position++;
+                open();
+                continue;
+            } else if (isDigit(c)) {
+                push(parseNumber());
+            } else if (isLetter(c)) {
+                push(parseVariable());
+            } else {
+                throw error();
+            }
+            // close every product, sum and parenthesis that ends after this primitive
+            while (true) {
+                if (accept('*')) {
+                    break;
+                }
+                reduce(factors[depth - 1], false);
+                if (accept('+')) {
+                    factors[depth - 1] = top;
+                    break;
+                }
+                reduce(terms[depth - 1], true);
+                depth--;
+                if (depth == 0) {
+                    if (position != length) {
+                        throw error();
+                    }
+                    return operands[0];
+                }
+                if (!accept(')')) {
+                    throw error();
+                }
+            }
+        }
+    }
+
+    // Start the sum inside a parenthesis, or of the whole input
+    private void open() {
+        if (depth == terms.length) {
+            terms = Arrays.copyOf(terms, 2 * depth);
+            factors = Arrays.copyOf(factors, 2 * depth);
+        }
+        terms[depth] = top;
+        factors[depth] = top;
+        depth++;
+    }
+
+    private void push(Expression operand) {
+        if (top == operands.length) {
+            operands = Arrays.copyOf(operands, 2 * top);
+        }
+        operands[top++] = operand;
+    }
+
+    // Replace operands[start..top), the terms of a sum or factors of a product, by that
+    // sum or product, or by the operand itself if there is only one
+    private void reduce(int start, boolean sum) {
+        if (top - start > 1) {
+            List<Expression> list = Arrays.asList(Arrays.copyOfRange(operands, start, top));
+            Arrays.fill(operands, start + 1, top, null);
+            operands[start] = sum ? Expression.sum(list) : Expression.times(list);
+            top = start + 1;
+        }
+    }
+
+    // NUMBER : [0-9]+('.'[0-9]+)?
+    private Expression parseNumber() {
+        int start = position;
+        while (position < length && isDigit(input.charAt(position))) {
+            position++;
+        }
+        if (position + 1 < length && input.charAt(position) == '.' && isDigit(input.charAt(position + 1))) {
+            position++;
+            while (position < length && isDigit(input.charAt(position))) {
+                position++;
+            }
+        }
+        return ExpressionFactory.number(Lexemes.number(input, start, position));
+    }
+
+    // VARIABLE : [a-zA-Z]+
+    private Expression parseVariable() {
+        int start = position;
+        while (position < length && isLetter(input.charAt(position))) {
+            position++;
+        }
+        return ExpressionFactory.variable(Lexemes.variable(input, start, position));
+    }
+
+    /*
+     * Skip spaces, then consume c if it is the next character.
+     * Returns true if and only if c was consumed.
+     */
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < length && input.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    // SPACES : [ ]+ -> skip
+    private void skipSpaces() {
+        while (position < length && input.charAt(position) == ' ') {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException("Invalid expression at position " + position + ": " + input);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -3,19 +3,10 @@
  */
 package expressivo;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.TokenStream;
-import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.antlr.v4.runtime.tree.TerminalNode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
-import expressivo.parser.ExpressionLexer;
-import expressivo.parser.ExpressionListener;
-import expressivo.parser.ExpressionParser;
 
 /**
  * An immutable data type representing a polynomial expression of:
@@ -38,15 +29,18 @@ public interface Expression {
      * 2. VariableExpression: Represents a variable (case-sensitive, nonempty string of letters).
      *    - Fields: String name
      * 
-     * 3. AddExpression: Represents the addition of two sub-expressions.
-     *    - Fields: Expression left, Expression right
+     * 3. AddExpression: Represents the addition of two or more sub-expressions.
+     *    - Fields: Expression[] operands
      * 
-     * 4. MultiplyExpression: Represents the multiplication of two sub-expressions.
-     *    - Fields: Expression left, Expression right
+     * 4. MultiplyExpression: Represents the multiplication of two or more sub-expressions.
+     *    - Fields: Expression[] operands
      * 
      * Recursive structure:
      * - An Expression can be composed of other Expressions through addition or multiplication,
      *   allowing for deeply nested expressions (e.g., (2 * x) + (3 * (x + 4))).
+     * - A chain of terms such as x + y + z is a single AddExpression with three operands,
+     *   so the depth of an expression is proportional to its parenthesis nesting,
+     *   not to its number of terms.
      */
 
     
@@ -58,35 +52,28 @@ public interface Expression {
      */
     public static Expression parse(String input) {
         try {
-            // Create a character stream from the input
-            CharStream stream = new ANTLRInputStream(input);
-            
-            // Create a lexer that processes the character stream
-            ExpressionLexer lexer = new ExpressionLexer(stream);
-            lexer.reportErrorsAsExceptions();
-
-            // Create a token stream from the lexer
-            TokenStream tokenStream = new CommonTokenStream(lexer); 
-            
-            // Create a parser that processes the token stream
-            ExpressionParser parser = new ExpressionParser(tokenStream);
-            parser.reportErrorsAsExceptions();
-
-            // Generate parse tree
-            ParseTree tree = parser.root();
-
-            // Walk the tree to create an expression
-            BuildExpr builder = new BuildExpr();
-            ParseTreeWalker walker = new ParseTreeWalker();
-
-            // Walk the tree, and get the expression
-            walker.walk(builder, tree);
-            return builder.getExpression();
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid expression: " + input, e);
+            return DirectParser.parse(input);
+        } catch (IllegalArgumentException e) {
+            // Re-parse with ANTLR, which gives the detailed error report
+            return parseWithAntlr(input);
         }
     }
     
+    /**
+     * Parse an expression with the ANTLR-generated parser.
+     * Slower than parse(), but reports errors in detail, and serves as the
+     * reference implementation: for all valid input,
+     *     parse(input).equals(parseWithAntlr(input))
+     * The generated parser recurses once per level of parenthesis nesting, so
+     * unlike parse() it rejects input nested more deeply than the call stack allows.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid, or nested too deeply
+     */
+    public static Expression parseWithAntlr(String input) {
+        return AntlrParser.parse(input);
+    }
+    
     /**
      * @return a parsable representation of this expression, such that
      * for all e:Expression, e.equals(Expression.parse(e.toString())).
@@ -110,6 +97,26 @@ public interface Expression {
     @Override
     public int hashCode();
     
+    /**
+     * @return 64-bit structural fingerprint of this expression, computed once on construction,
+     * that depends on the operators, numbers, variable names and order of operands, such that
+     * for all e1,e2:Expression, e1.equals(e2) implies e1.fingerprint() == e2.fingerprint(),
+     * and unequal expressions have equal fingerprints only with negligible probability
+     */
+    public long fingerprint();
+    
+    /**
+     * @return number of nodes in the tree of this expression, counting a subtree once
+     * for every place it occurs, or Long.MAX_VALUE if that number is larger
+     */
+    public long size();
+    
+    /**
+     * @return number of nodes on the longest path from this expression to a number
+     * or variable in it, counting both ends; 1 for a number or variable
+     */
+    public int depth();
+    
         /**
      * Strips unnecessary zeroes 
      * @param left
@@ -118,14 +125,14 @@ public interface Expression {
      * if one of them happens to be zero
      */
     public static Expression sum(Expression left, Expression right){
-        Number zero = new Number(0);
+        Expression zero = ExpressionFactory.number(0);
         if(left.equals(zero)){
             return right;
         }
         if(right.equals(zero)){
             return left;
         }
-        return new Add(left,right);
+        return ExpressionFactory.add(left,right);
     }
 
     /**
@@ -137,10 +144,10 @@ public interface Expression {
      * input if one of the inputs represents one
      */
     public static Expression times(Expression left, Expression right){
-        Number zero = new Number(0);
-        Number one = new Number(1);
+        Expression zero = ExpressionFactory.number(0);
+        Expression one = ExpressionFactory.number(1);
         if (left.equals(zero)||right.equals(zero)) {
-            return new Number(0);
+            return zero;
         }
         if (left.equals(one)) {
             return right;
@@ -148,13 +155,105 @@ public interface Expression {
         if (right.equals(one)) {
             return left;
         }
-        return new Multiply(left, right);
+        return ExpressionFactory.multiply(left, right);
+    }
+
+    /**
+     * Strips unnecessary zeroes 
+     * @param terms expressions to add, at least one
+     * @return an Expression representing the sum of terms in order, as a single Add
+     * of the terms that are not zero, or as one of the terms if only one of them is not zero
+     */
+    public static Expression sum(List<Expression> terms) {
+        Expression zero = ExpressionFactory.number(0);
+        List<Expression> nonzero = new ArrayList<>(terms.size());
+        for (Expression term : terms) {
+            if (!term.equals(zero)) {
+                nonzero.add(term);
+            }
+        }
+        switch (nonzero.size()) {
+        case 0:
+            return terms.get(terms.size() - 1);
+        case 1:
+            return nonzero.get(0);
+        default:
+            return ExpressionFactory.add(nonzero.toArray(new Expression[nonzero.size()]));
+        }
+    }
+
+    /**
+     * Strips unnecessary ones and zeroes would just become zero 
+     * @param factors expressions to multiply, at least one
+     * @return an Expression representing the product of factors in order, which is
+     * a representation of zero if one of the factors is zero, and otherwise a single
+     * Multiply of the factors that are not one, or one of the factors if only one of
+     * them is not one
+     */
+    public static Expression times(List<Expression> factors) {
+        Expression zero = ExpressionFactory.number(0);
+        Expression one = ExpressionFactory.number(1);
+        List<Expression> nonone = new ArrayList<>(factors.size());
+        for (Expression factor : factors) {
+            if (factor.equals(zero)) {
+                return zero;
+            }
+            if (!factor.equals(one)) {
+                nonone.add(factor);
+            }
+        }
+        switch (nonone.size()) {
+        case 0:
+            return factors.get(factors.size() - 1);
+        case 1:
+            return nonone.get(0);
+        default:
+            return ExpressionFactory.multiply(nonone.toArray(new Expression[nonone.size()]));
+        }
     }
 
     /**
      * Differentiates the expression with respect to the variable var
      * @param var the variable with respect to which the expression is to be differentiated
-     * @return an Expression object representing the differentiated form
+     * @return an Expression object representing the differentiated form, simplified as it is
+     * built: in each sum and product of the derivative, the numbers among the operands are
+     * folded into one, which comes last in a sum and first in a product, zero terms and unit
+     * factors are removed, and a product with a zero factor is zero
      */
     public Expression differentiate(String var);
+
+    /**
+     * Evaluates the expression
+     * @param environment maps variables to their values
+     * @return the value of this expression, with each variable replaced by its value in environment
+     * @throws IllegalArgumentException if a variable of this expression has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment);
+
+    /**
+     * Simplifies the expression by substituting values for variables and folding constants
+     * @param environment maps variables to nonnegative finite values
+     * @return an Expression equal in value to this one for all values of its remaining variables,
+     * in which each variable of environment is replaced by its value, the numbers among the
+     * operands of each sum and each product are combined into one, which comes last in a sum
+     * and first in a product, and zero terms and unit factors are removed; an expression
+     * whose variables are all in environment becomes a single Number
+     * @throws IllegalArgumentException if a value in environment that is used, or a folded
+     * constant, is negative or not finite
+     */
+    public Expression simplify(Map<String, Double> environment);
+
+    /**
+     * Compute a result for this expression from its numbers and variables up, combining
+     * the results for the operands of each sum and product. Runs on an explicit stack in
+     * the heap, so the depth of the expression is limited only by memory; the operations
+     * of Expression are implemented in the same way.
+     * @param fold the computation for each variant; a subtree that is the same object in
+     *        several places is computed once
+     * @param <R> type of the result
+     * @return the result of fold for this expression
+     */
+    public default <R> R fold(ExpressionFold<R> fold) {
+        return Traversal.fold(this, fold);
+    }
 }
\ No newline at end of file
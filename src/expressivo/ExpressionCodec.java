@@ -0,0 +1,369 @@
+package expressivo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A compact binary format for expressions, for caches, transfer between
+ * processes, and archives.
+ *
+ * <p>Each expression is a self-contained record:
+ * <pre>
+ *   record      ::= MAGIC VERSION varint(#variables) variable* varint(#nodes) node*
+ *   variable    ::= varint(length) ASCII-letter*
+ *   node        ::= varint(operand &lt;&lt; 3 | tag) [8-byte IEEE 754 double if tag is DOUBLE]
+ * </pre>
+ * The variables are the dictionary of distinct variable names, in order of
+ * first appearance. The nodes are the postfix traversal of the expression, in
+ * which the operand of a node is an integer constant for SMALL_INT, a dictionary
+ * index for VARIABLE, and the number of operands for ADD and MULTIPLY. Varints
+ * are unsigned LEB128, and doubles are big-endian.
+ *
+ * <p>For all e:Expression, decode(encode(e)).equals(e).
+ */
+public final class ExpressionCodec {
+
+    /** First byte of every record. */
+    static final int MAGIC = 0xE7;
+    /** Version of the format written by this class. */
+    static final int VERSION = 1;
+
+    static final int SMALL_INT = 0;
+    static final int DOUBLE = 1;
+    static final int VARIABLE = 2;
+    static final int ADD = 3;
+    static final int MULTIPLY = 4;
+
+    private ExpressionCodec() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param expression an expression with fewer than 2^63 nodes
+     * @return the record of expression
+     */
+    public static byte[] encode(Expression expression) {
+        ArrayOutput out = new ArrayOutput();
+        write(expression, out);
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    /**
+     * Write the record of an expression.
+     * @param expression an expression with fewer than 2^63 nodes
+     * @param out stream to write to; it is not flushed or closed
+     * @throws IOException if out cannot be written
+     */
+    public static void write(Expression expression, OutputStream out) throws IOException {
+        ArrayOutput buffer = new ArrayOutput();
+        write(expression, buffer);
+        out.write(buffer.bytes, 0, buffer.length);
+    }
+
+    /**
+     * Write the record of an expression at the position of a buffer, and advance the position
+     * past it.
+     * @param expression an expression with fewer than 2^63 nodes
+     * @param buffer buffer to write to
+     * @throws java.nio.BufferOverflowException if the record does not fit in the remaining
+     *         space of buffer; the position of buffer is then unspecified
+     */
+    public static void write(Expression expression, ByteBuffer buffer) {
+        write(expression, new BufferOutput(buffer));
+    }
+
+    /**
+     * @param record the record of an expression
+     * @return the expression, made through ExpressionFactory without simplification
+     * @throws IllegalArgumentException if record is not exactly one valid record
+     */
+    public static Expression decode(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        Expression expression = read(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Invalid record: " + buffer.remaining() + " bytes after the end");
+        }
+        return expression;
+    }
+
+    /**
+     * Read a record at the position of a buffer, and advance the position past it.
+     * Reads directly from the buffer, which may be memory-mapped, without copying it.
+     * @param buffer buffer to read from
+     * @return the expression, made through ExpressionFactory without simplification
+     * @throws IllegalArgumentException if the buffer does not hold a valid record at its
+     *         position; the position of buffer is then unspecified
+     */
+    public static Expression read(ByteBuffer buffer) {
+        try {
+            return read(new BufferInput(buffer));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Invalid record: truncated", e);
+        } catch (IOException e) {
+            throw new AssertionError("buffers do not throw IOException", e);
+        }
+    }
+
+    /**
+     * Read a record from a stream. Reads one byte at a time, so in should be buffered.
+     * @param in stream to read from, positioned at the start of a record or at its end
+     * @return the expression, made through ExpressionFactory without simplification,
+     *         or null if in is at its end
+     * @throws IOException if in cannot be read, or ends inside a record
+     * @throws IllegalArgumentException if in does not hold a valid record
+     */
+    public static Expression read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        return read(new StreamInput(in, first));
+    }
+
+    private static void write(Expression expression, Output out) {
+        Map<String, Integer> slots = Variables.slots(expression);
+        out.put(MAGIC);
+        out.put(VERSION);
+        putVarint(out, slots.size());
+        for (String name : slots.keySet()) {
+            putVarint(out, name.length());
+            for (int i = 0; i < name.length(); i++) {
+                out.put(name.charAt(i));
+            }
+        }
+        long size = expression.size();
+        if (size == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Expression too large to encode");
+        }
+        putVarint(out, size);
+        writeNodes(expression, slots, out);
+    }
+
+    // Write the postfix traversal of expression
+    private static void writeNodes(Expression expression, Map<String, Integer> slots, Output out) {
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, false); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Number) {
+                double value = ((Number) node).value();
+                if (value == Math.rint(value) && value <= Integer.MAX_VALUE) {
+                    putVarint(out, (long) value << 3 | SMALL_INT);
+                } else {
+                    putVarint(out, DOUBLE);
+                    long bits = Double.doubleToRawLongBits(value);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.put((int) (bits >>> shift));
+                    }
+                }
+            } else if (node instanceof Variable) {
+                putVarint(out, (long) slots.get(((Variable) node).name()) << 3 | VARIABLE);
+            } else {
+                putVarint(out, (long) Traversal.arity(node) << 3 | (node instanceof Add ? ADD : MULTIPLY));
+            }
+        }
+    }
+
+    private static void putVarint(Output out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.put((int) value);
+    }
+
+    private static Expression read(Input in) throws IOException {
+        if (in.get() != MAGIC) {
+            throw new IllegalArgumentException("Invalid record: bad magic number");
+        }
+        int version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Invalid record: unsupported version " + version);
+        }
+        // the counts are not trusted to size arrays: a few bytes could claim billions of
+        // entries, so the arrays grow only as the entries are actually read
+        int variableCount = checkedInt(getVarint(in));
+        String[] variables = new String[Math.min(variableCount, 16)];
+        for (int v = 0; v < variableCount; v++) {
+            int length = checkedInt(getVarint(in));
+            if (length == 0) {
+                throw new IllegalArgumentException("Invalid record: empty variable name");
+            }
+            byte[] name = new byte[Math.min(length, 16)];
+            for (int i = 0; i < length; i++) {
+                if (i == name.length) {
+                    name = Arrays.copyOf(name, (int) Math.min(2L * i, length));
+                }
+                name[i] = (byte) in.get();
+                if (!isLetter(name[i])) {
+                    throw new IllegalArgumentException("Invalid record: variable name is not letters");
+                }
+            }
+            if (v == variables.length) {
+                variables = Arrays.copyOf(variables, (int) Math.min(2L * v, variableCount));
+            }
+            variables[v] = new String(name, StandardCharsets.US_ASCII);
+        }
+
+        long nodes = getVarint(in);
+        Expression[] stack = new Expression[16];
+        int top = 0;
+        for (long n = 0; n < nodes; n++) {
+            long node = getVarint(in);
+            int tag = (int) (node & 7);
+            long operand = node >>> 3;
+            if (tag == ADD || tag == MULTIPLY) {
+                if (operand < 2 || operand > top) {
+                    throw new IllegalArgumentException("Invalid record: bad operand count " + operand);
+                }
+                int arity = (int) operand;
+                top -= arity;
+                Expression[] operands = Arrays.copyOfRange(stack, top, top + arity);
+                stack[top++] = tag == ADD ? ExpressionFactory.add(operands) : ExpressionFactory.multiply(operands);
+                continue;
+            }
+            Expression leaf;
+            switch (tag) {
+            case SMALL_INT:
+                leaf = ExpressionFactory.number(operand);
+                break;
+            case DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = bits << 8 | in.get();
+                }
+                double value = Double.longBitsToDouble(bits);
+                if (!(value >= 0) || Double.isInfinite(value) || operand != 0) {
+                    throw new IllegalArgumentException("Invalid record: bad number " + value);
+                }
+                leaf = ExpressionFactory.number(value);
+                break;
+            }
+            case VARIABLE:
+                if (operand >= variables.length) {
+                    throw new IllegalArgumentException("Invalid record: bad variable " + operand);
+                }
+                leaf = ExpressionFactory.variable(variables[(int) operand]);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid record: bad tag " + tag);
+            }
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * top);
+            }
+            stack[top++] = leaf;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid record: " + top + " expressions instead of one");
+        }
+        return stack[0];
+    }
+
+    private static long getVarint(Input in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid record: varint too long");
+    }
+
+    private static int checkedInt(long value) {
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid record: count too large " + value);
+        }
+        return (int) value;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    /*
+     * Destination of the bytes of a record.
+     */
+    private interface Output {
+        // Write the low 8 bits of b
+        void put(int b);
+    }
+
+    private static class ArrayOutput implements Output {
+        byte[] bytes = new byte[64];
+        int length = 0;
+
+        @Override
+        public void put(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            }
+            bytes[length++] = (byte) b;
+        }
+    }
+
+    private static class BufferOutput implements Output {
+        private final ByteBuffer buffer;
+
+        BufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void put(int b) {
+            buffer.put((byte) b);
+        }
+    }
+
+    /*
+     * Source of the bytes of a record.
+     */
+    private interface Input {
+        // Read the next byte, as 0..255
+        int get() throws IOException;
+    }
+
+    private static class BufferInput implements Input {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int get() {
+            return buffer.get() & 0xFF;
+        }
+    }
+
+    private static class StreamInput implements Input {
+        private final InputStream in;
+        private int pending;
+
+        // first is a byte already read from in, to be returned first
+        StreamInput(InputStream in, int first) {
+            this.in = in;
+            this.pending = first;
+        }
+
+        @Override
+        public int get() throws IOException {
+            if (pending >= 0) {
+                int b = pending;
+                pending = -1;
+                return b;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("stream ended inside a record");
+            }
+            return b;
+        }
+    }
+}
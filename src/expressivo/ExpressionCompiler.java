@@ -0,0 +1,649 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Compiles expressions to JVM bytecode for repeated evaluation.
+ *
+ * <p>An expression compiles to a class with one straight-line method,
+ * double evaluate(double[] values), that loads each variable from its slot of
+ * the array, loads each number as a constant, and adds and multiplies them in
+ * the order of the tree. With no calls and no branches, the JIT compiles the
+ * whole expression into one piece of machine code. A second straight-line
+ * method evaluates the expression with its directional derivative, keeping the
+ * value and tangent of each sum and product in local variables.
+ *
+ * <p>Each class is defined in its own class loader, so it can be unloaded once
+ * it is no longer used. Compiled expressions are cached by structural
+ * equality, which looks them up by fingerprint. An expression too large for
+ * the JIT to compile as one method is interpreted instead, computing each
+ * distinct node once.
+ */
+public final class ExpressionCompiler {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<Expression, CompiledExpression> CACHE =
+            new LinkedHashMap<Expression, CompiledExpression>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Expression, CompiledExpression> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private static final String CODE_INTERFACE = "expressivo/CompiledExpression$Code";
+    private static final String DUAL_CODE_INTERFACE = "expressivo/CompiledExpression$DualCode";
+    // the JVM allows 65535 local variable slots in a method
+    private static final int MAX_LOCALS = 65535;
+    // HotSpot does not JIT-compile methods longer than 8000 bytes (-XX:HugeMethodLimit),
+    // and a generated method that is only interpreted is slower than the interpreter
+    private static final int MAX_CODE_LENGTH = 8000;
+    // kinds of node in the interpreter
+    private static final int NUMBER = 0;
+    private static final int VARIABLE = 1;
+    private static final int ADD = 2;
+    private static final int MULTIPLY = 3;
+    // leaves room for the entries added after the method bodies
+    private static final int MAX_CONSTANTS = 65535 - 8;
+
+    private ExpressionCompiler() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Compile an expression, or return the cached compilation of an equal expression.
+     * @param expression expression to compile
+     * @return compiled form of expression
+     */
+    public static CompiledExpression compile(Expression expression) {
+        synchronized (CACHE) {
+            CompiledExpression cached = CACHE.get(expression);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        CompiledExpression compiled = compileUncached(expression);
+        synchronized (CACHE) {
+            CACHE.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    private static CompiledExpression compileUncached(Expression expression) {
+        Map<String, Integer> slots = Variables.slots(expression);
+        List<String> variables = new ArrayList<>(slots.keySet());
+        CompiledExpression.DualCode interpreted =
+                (values, tangents, result) -> ForwardMode.evaluate(expression, slots, values, tangents, result);
+        byte[] classFile = generate(expression, slots);
+        if (classFile == null) {
+            return new CompiledExpression(expression, variables, interpreter(expression, slots), interpreted, false);
+        }
+        try {
+            Class<?> generated = new Loader().define(classFile);
+            Object instance = generated.getDeclaredConstructor().newInstance();
+            CompiledExpression.DualCode dual = instance instanceof CompiledExpression.DualCode
+                    ? (CompiledExpression.DualCode) instance
+                    : interpreted;
+            return new CompiledExpression(expression, variables, (CompiledExpression.Code) instance, dual, true);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new AssertionError("generated class is invalid", e);
+        }
+    }
+
+    /*
+     * Interpret expression, for expressions too large to compile. The distinct nodes are
+     * numbered in postorder, so that the operands of a node come before it, and each
+     * evaluation computes each distinct node once, into a scratch array.
+     */
+    private static CompiledExpression.Code interpreter(Expression expression, Map<String, Integer> slots) {
+        Map<Expression, Integer> index = new IdentityHashMap<>();
+        List<Expression> nodes = new ArrayList<>();
+        for (Traversal.Postorder all = new Traversal.Postorder(expression, true); all.hasNext(); ) {
+            Expression node = all.next();
+            index.put(node, nodes.size());
+            nodes.add(node);
+        }
+        final int count = nodes.size();
+        final int[] kinds = new int[count];
+        final double[] numbers = new double[count];
+        // the operands of a sum or product, or the slot of a variable
+        final int[][] operands = new int[count][];
+        for (int i = 0; i < count; i++) {
+            Expression node = nodes.get(i);
+            if (node instanceof Number) {
+                kinds[i] = NUMBER;
+                numbers[i] = ((Number) node).value();
+            } else if (node instanceof Variable) {
+                kinds[i] = VARIABLE;
+                operands[i] = new int[] { slots.get(((Variable) node).name()) };
+            } else {
+                kinds[i] = node instanceof Add ? ADD : MULTIPLY;
+                operands[i] = new int[Traversal.arity(node)];
+                for (int j = 0; j < operands[i].length; j++) {
+                    operands[i][j] = index.get(Traversal.operand(node, j));
+                }
+            }
+        }
+        return values -> {
+            double[] results = new double[count];
+            for (int i = 0; i < count; i++) {
+                switch (kinds[i]) {
+                case NUMBER:
+                    results[i] = numbers[i];
+                    break;
+                case VARIABLE:
+                    results[i] = values[operands[i][0]];
+                    break;
+                case ADD: {
+                    double sum = 0;
+                    for (int operand : operands[i]) {
+                        sum += results[operand];
+                    }
+                    results[i] = sum;
+                    break;
+                }
+                default: {
+                    double product = 1;
+                    for (int operand : operands[i]) {
+                        product *= results[operand];
+                    }
+                    results[i] = product;
+                    break;
+                }
+                }
+            }
+            return results[count - 1];
+        };
+    }
+
+    /*
+     * Generate the class file of an implementation of CompiledExpression.Code, which
+     * also implements CompiledExpression.DualCode if its dual method fits, or return
+     * null if the expression is too large for one method.
+     */
+    private static byte[] generate(Expression expression, Map<String, Integer> slots) {
+        // every node of the tree emits at least one byte; size() is cached, so a huge tree,
+        // such as a derivative with many shared subtrees, is turned away before emitting any
+        if (expression.size() > MAX_CODE_LENGTH) {
+            return null;
+        }
+        ConstantPool pool = new ConstantPool();
+        int className = pool.classRef("expressivo/CompiledExpression$Generated" + CLASS_COUNTER.incrementAndGet());
+        int superName = pool.classRef("java/lang/Object");
+        int interfaceName = pool.classRef(CODE_INTERFACE);
+        int dualInterfaceName = pool.classRef(DUAL_CODE_INTERFACE);
+        int objectInit = pool.methodRef(superName, "<init>", "()V");
+        int codeAttribute = pool.utf8("Code");
+
+        ByteBuffer init = new ByteBuffer();
+        init.u1(Opcodes.ALOAD_0).u1(Opcodes.INVOKESPECIAL).u2(objectInit).u1(Opcodes.RETURN);
+
+        ByteBuffer evaluate = new ByteBuffer();
+        int maxStack = emit(expression, slots, pool, evaluate);
+        evaluate.u1(Opcodes.DRETURN);
+        if (evaluate.length() > MAX_CODE_LENGTH || pool.count() > MAX_CONSTANTS) {
+            return null;
+        }
+
+        DualEmitter dualEmitter = new DualEmitter(slots, pool);
+        ByteBuffer dual = dualEmitter.emitMethod(expression);
+        // the dual method uses only constants that evaluate already added
+        boolean hasDual = dual.length() <= MAX_CODE_LENGTH && dualEmitter.maxLocals() <= MAX_LOCALS;
+
+        ByteBuffer classFile = new ByteBuffer();
+        classFile.u4(0xCAFEBABE).u2(0).u2(52);
+        int initName = pool.utf8("<init>");
+        int initType = pool.utf8("()V");
+        int evaluateName = pool.utf8("evaluate");
+        int evaluateType = pool.utf8("([D)D");
+        int dualType = pool.utf8("([D[D[D)V");
+        pool.writeTo(classFile);
+        classFile.u2(0x0001 | 0x0010 | 0x0020);  // public final super
+        classFile.u2(className).u2(superName);
+        if (hasDual) {
+            classFile.u2(2).u2(interfaceName).u2(dualInterfaceName);
+        } else {
+            classFile.u2(1).u2(interfaceName);
+        }
+        classFile.u2(0);  // fields
+        classFile.u2(hasDual ? 3 : 2);  // methods
+        method(classFile, initName, initType, codeAttribute, 1, 1, init);
+        method(classFile, evaluateName, evaluateType, codeAttribute, maxStack, 2, evaluate);
+        if (hasDual) {
+            method(classFile, evaluateName, dualType, codeAttribute, DualEmitter.MAX_STACK,
+                    dualEmitter.maxLocals(), dual);
+        }
+        classFile.u2(0);  // attributes
+        return classFile.toByteArray();
+    }
+
+    private static void method(ByteBuffer classFile, int name, int type, int codeAttribute,
+            int maxStack, int maxLocals, ByteBuffer code) {
+        classFile.u2(0x0001).u2(name).u2(type);
+        classFile.u2(1);  // attributes: Code
+        classFile.u2(codeAttribute).u4(12 + code.length());
+        classFile.u2(maxStack).u2(maxLocals);
+        classFile.u4(code.length()).bytes(code);
+        classFile.u2(0);  // exception table
+        classFile.u2(0);  // attributes
+    }
+
+    // Emit code that pushes the value of expression, reading variables from local 1, and
+    // return the maximum operand stack depth of that code, in words
+    private static int emit(Expression expression, Map<String, Integer> slots, ConstantPool pool, ByteBuffer code) {
+        // the running result of every open sum or product, each a double of two words
+        int depth = 0;
+        int maxStack = 0;
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, false); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Number) {
+                double value = ((Number) node).value();
+                if (value == 0) {
+                    code.u1(Opcodes.DCONST_0);
+                } else if (value == 1) {
+                    code.u1(Opcodes.DCONST_1);
+                } else {
+                    code.u1(Opcodes.LDC2_W).u2(pool.doubleConstant(value));
+                }
+                // a double constant
+                maxStack = Math.max(maxStack, depth + 2);
+                depth += 2;
+            } else if (node instanceof Variable) {
+                code.u1(Opcodes.ALOAD_1);
+                pushInt(slots.get(((Variable) node).name()), pool, code);
+                code.u1(Opcodes.DALOAD);
+                // an array reference and an index, then the double loaded
+                maxStack = Math.max(maxStack, depth + 2);
+                depth += 2;
+            }
+            // every operand after the first is combined with the running result as soon
+            // as it is pushed, so sums and products are computed left to right
+            if (nodes.parent() != null && nodes.index() > 0) {
+                code.u1(nodes.parent() instanceof Add ? Opcodes.DADD : Opcodes.DMUL);
+                depth -= 2;
+            }
+        }
+        return maxStack;
+    }
+
+    // Emit code that pushes the nonnegative int value
+    private static void pushInt(int value, ConstantPool pool, ByteBuffer code) {
+        if (value <= 5) {
+            code.u1(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.u1(Opcodes.BIPUSH).u1(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.u1(Opcodes.SIPUSH).u2(value);
+        } else {
+            code.u1(Opcodes.LDC_W).u2(pool.intConstant(value));
+        }
+    }
+
+    /*
+     * Emits the body of void evaluate(double[] values, double[] tangents, double[] result),
+     * which stores the value of an expression and its derivative along tangents in result.
+     * Every distinct sum or product node is computed once, into a pair of double locals
+     * holding its value and tangent; numbers and variables are loaded where they are used.
+     */
+    private static final class DualEmitter {
+        // a running value or tangent, a value, and an array reference and index
+        static final int MAX_STACK = 6;
+        // locals 0..3 are this, values, tangents and result
+        private static final int FIRST_LOCAL = 4;
+
+        private final Map<String, Integer> slots;
+        private final ConstantPool pool;
+        private final ByteBuffer code = new ByteBuffer();
+        private final Map<Expression, Operand> emitted = new IdentityHashMap<>();
+        private int nextLocal = FIRST_LOCAL;
+
+        DualEmitter(Map<String, Integer> slots, ConstantPool pool) {
+            this.slots = slots;
+            this.pool = pool;
+        }
+
+        int maxLocals() {
+            return nextLocal;
+        }
+
+        ByteBuffer emitMethod(Expression expression) {
+            Operand root = emit(expression);
+            code.u1(Opcodes.ALOAD_3).u1(Opcodes.ICONST_0);
+            root.loadValue(this);
+            code.u1(Opcodes.DASTORE);
+            code.u1(Opcodes.ALOAD_3).u1(Opcodes.ICONST_0 + 1);
+            root.loadTangent(this);
+            code.u1(Opcodes.DASTORE);
+            code.u1(Opcodes.RETURN);
+            return code;
+        }
+
+        // Emit code computing each distinct node of expression once, operands before the
+        // nodes that use them, and return the operand of expression
+        private Operand emit(Expression expression) {
+            for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+                Expression node = nodes.next();
+                Operand operand;
+                if (node instanceof Number) {
+                    operand = new Operand(((Number) node).value());
+                } else if (node instanceof Variable) {
+                    operand = new Operand(slots.get(((Variable) node).name()));
+                } else {
+                    Operand[] operands = new Operand[Traversal.arity(node)];
+                    for (int i = 0; i < operands.length; i++) {
+                        operands[i] = emitted.get(Traversal.operand(node, i));
+                    }
+                    int value = allocate();
+                    int tangent = allocate();
+                    boolean zeroTangent = node instanceof Add
+                            ? emitSum(operands, value, tangent)
+                            : emitProduct(operands, value, tangent);
+                    operand = new Operand(value, zeroTangent ? -1 : tangent);
+                }
+                emitted.put(node, operand);
+            }
+            return emitted.get(expression);
+        }
+
+        // Emit a sum into locals value and tangent; return true if its tangent is zero
+        private boolean emitSum(Operand[] operands, int value, int tangent) {
+            operands[0].loadValue(this);
+            for (int i = 1; i < operands.length; i++) {
+                operands[i].loadValue(this);
+                code.u1(Opcodes.DADD);
+            }
+            store(value);
+            boolean zeroTangent = true;
+            for (Operand operand : operands) {
+                if (!operand.hasZeroTangent()) {
+                    operand.loadTangent(this);
+                    if (!zeroTangent) {
+                        code.u1(Opcodes.DADD);
+                    }
+                    zeroTangent = false;
+                }
+            }
+            if (!zeroTangent) {
+                store(tangent);
+            }
+            return zeroTangent;
+        }
+
+        // Emit a product into locals value and tangent; return true if its tangent is zero
+        private boolean emitProduct(Operand[] operands, int value, int tangent) {
+            operands[0].loadValue(this);
+            store(value);
+            boolean zeroTangent = operands[0].hasZeroTangent();
+            if (!zeroTangent) {
+                operands[0].loadTangent(this);
+                store(tangent);
+            }
+            for (int i = 1; i < operands.length; i++) {
+                // (u * v)' = u' * v + u * v', with u the running product
+                if (!zeroTangent) {
+                    load(tangent);
+                    operands[i].loadValue(this);
+                    code.u1(Opcodes.DMUL);
+                }
+                if (!operands[i].hasZeroTangent()) {
+                    load(value);
+                    operands[i].loadTangent(this);
+                    code.u1(Opcodes.DMUL);
+                    if (!zeroTangent) {
+                        code.u1(Opcodes.DADD);
+                    }
+                }
+                if (!zeroTangent || !operands[i].hasZeroTangent()) {
+                    store(tangent);
+                    zeroTangent = false;
+                }
+                load(value);
+                operands[i].loadValue(this);
+                code.u1(Opcodes.DMUL);
+                store(value);
+            }
+            return zeroTangent;
+        }
+
+        private int allocate() {
+            int local = nextLocal;
+            // a double takes two local slots
+            nextLocal += 2;
+            return local;
+        }
+
+        private void load(int local) {
+            localInstruction(Opcodes.DLOAD, local);
+        }
+
+        private void store(int local) {
+            localInstruction(Opcodes.DSTORE, local);
+        }
+
+        private void localInstruction(int opcode, int local) {
+            if (local <= 0xFF) {
+                code.u1(opcode).u1(local);
+            } else {
+                code.u1(Opcodes.WIDE).u1(opcode).u2(local);
+            }
+        }
+
+        /*
+         * Where the value and tangent of a node are found: a number, a variable's slot
+         * of the values and tangents arrays, or a pair of locals.
+         */
+        private static final class Operand {
+            private final double number;
+            private final int slot;
+            private final int valueLocal;
+            private final int tangentLocal;
+
+            // a number, whose tangent is zero
+            Operand(double number) {
+                this(number, -1, -1, -1);
+            }
+
+            // a variable in slot
+            Operand(int slot) {
+                this(0, slot, -1, -1);
+            }
+
+            // a sum or product in locals; tangentLocal is -1 if the tangent is zero
+            Operand(int valueLocal, int tangentLocal) {
+                this(0, -1, valueLocal, tangentLocal);
+            }
+
+            private Operand(double number, int slot, int valueLocal, int tangentLocal) {
+                this.number = number;
+                this.slot = slot;
+                this.valueLocal = valueLocal;
+                this.tangentLocal = tangentLocal;
+            }
+
+            boolean hasZeroTangent() {
+                return slot < 0 && tangentLocal < 0;
+            }
+
+            void loadValue(DualEmitter emitter) {
+                if (slot >= 0) {
+                    emitter.code.u1(Opcodes.ALOAD_1);
+                    pushInt(slot, emitter.pool, emitter.code);
+                    emitter.code.u1(Opcodes.DALOAD);
+                } else if (valueLocal >= 0) {
+                    emitter.load(valueLocal);
+                } else if (number == 0) {
+                    emitter.code.u1(Opcodes.DCONST_0);
+                } else if (number == 1) {
+                    emitter.code.u1(Opcodes.DCONST_1);
+                } else {
+                    emitter.code.u1(Opcodes.LDC2_W).u2(emitter.pool.doubleConstant(number));
+                }
+            }
+
+            void loadTangent(DualEmitter emitter) {
+                if (slot >= 0) {
+                    emitter.code.u1(Opcodes.ALOAD_2);
+                    pushInt(slot, emitter.pool, emitter.code);
+                    emitter.code.u1(Opcodes.DALOAD);
+                } else if (tangentLocal >= 0) {
+                    emitter.load(tangentLocal);
+                } else {
+                    emitter.code.u1(Opcodes.DCONST_0);
+                }
+            }
+        }
+    }
+
+    /*
+     * The JVM opcodes used by generated code.
+     */
+    private static final class Opcodes {
+        static final int ICONST_0 = 0x03;
+        static final int DCONST_0 = 0x0e;
+        static final int DCONST_1 = 0x0f;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC_W = 0x13;
+        static final int LDC2_W = 0x14;
+        static final int ALOAD_0 = 0x2a;
+        static final int DLOAD = 0x18;
+        static final int ALOAD_1 = 0x2b;
+        static final int ALOAD_2 = 0x2c;
+        static final int ALOAD_3 = 0x2d;
+        static final int DALOAD = 0x31;
+        static final int DSTORE = 0x39;
+        static final int DASTORE = 0x52;
+        static final int DADD = 0x63;
+        static final int DMUL = 0x6b;
+        static final int DRETURN = 0xaf;
+        static final int RETURN = 0xb1;
+        static final int INVOKESPECIAL = 0xb7;
+        static final int WIDE = 0xc4;
+    }
+
+    /*
+     * The constant pool of a class file under construction.
+     */
+    private static final class ConstantPool {
+        private final ByteBuffer entries = new ByteBuffer();
+        private final Map<Object, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int count() {
+            return count;
+        }
+
+        int utf8(String value) {
+            return entry("utf8:" + value, 1, 1, buffer -> buffer.utf8(value));
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("class:" + internalName, 7, 1, buffer -> buffer.u2(name));
+        }
+
+        int methodRef(int owner, String name, String type) {
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = entry("nat:" + name + type, 12, 1, buffer -> buffer.u2(nameIndex).u2(typeIndex));
+            return entry("method:" + owner + "." + name + type, 10, 1, buffer -> buffer.u2(owner).u2(nameAndType));
+        }
+
+        int intConstant(int value) {
+            return entry("int:" + value, 3, 1, buffer -> buffer.u4(value));
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToLongBits(value);
+            // a double takes two entries of the pool
+            return entry(bits, 6, 2, buffer -> buffer.u4((int) (bits >>> 32)).u4((int) bits));
+        }
+
+        void writeTo(ByteBuffer classFile) {
+            classFile.u2(count).bytes(entries);
+        }
+
+        private int entry(Object key, int tag, int size, Consumer<ByteBuffer> body) {
+            Integer index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            entries.u1(tag);
+            body.accept(entries);
+            indices.put(key, count);
+            count += size;
+            return count - size;
+        }
+    }
+
+    /*
+     * A growable big-endian byte buffer.
+     */
+    private static final class ByteBuffer {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        int length() {
+            return length;
+        }
+
+        ByteBuffer u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        ByteBuffer u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        ByteBuffer u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        ByteBuffer bytes(ByteBuffer that) {
+            for (int i = 0; i < that.length; i++) {
+                u1(that.bytes[i]);
+            }
+            return this;
+        }
+
+        ByteBuffer utf8(String value) {
+            // names and descriptors here are ASCII, whose modified UTF-8 is one byte per char
+            u2(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                u1(value.charAt(i));
+            }
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /*
+     * A class loader for one generated class.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(ExpressionCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] classFile) {
+            return defineClass(null, classFile, 0, classFile.length);
+        }
+    }
+}
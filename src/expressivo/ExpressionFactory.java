@@ -0,0 +1,242 @@
+package expressivo;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Factory for the variants of Expression, optionally hash-consing them.
+ *
+ * <p>When interning is enabled, the factory keeps a concurrent table of weak
+ * references to the nodes it has made, keyed by operator and by the identity
+ * of the children. Making a node that is structurally equal to one still in
+ * the table returns the existing node, so equal subtrees built through the
+ * factory are the same object, and equals() on them is a reference check.
+ * Nodes are removed from the table once they are no longer used elsewhere.
+ *
+ * <p>Sharing is complete only when the children of a node also come from the
+ * factory while interning is enabled; a node with other children is still
+ * correct, and is shared with nodes that have the very same children.
+ *
+ * <p>Parsing, Expression.sum() and Expression.times(), and differentiate() make
+ * their nodes through this factory.
+ */
+public final class ExpressionFactory {
+
+    private static final Number ZERO = new Number(0);
+    private static final Number ONE = new Number(1);
+
+    private static volatile boolean interning = false;
+
+    private static final ConcurrentMap<Key, Entry> TABLE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Expression> CLEARED = new ReferenceQueue<>();
+
+    private ExpressionFactory() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Turn interning on or off. Turning it off empties the table.
+     * @param enabled true to share structurally equal nodes made from now on
+     */
+    public static void setInterning(boolean enabled) {
+        interning = enabled;
+        if (!enabled) {
+            TABLE.clear();
+        }
+    }
+
+    /**
+     * @return true if interning is enabled
+     */
+    public static boolean isInterning() {
+        return interning;
+    }
+
+    /**
+     * @return number of distinct nodes currently in the intern table
+     */
+    public static int internedCount() {
+        expungeCleared();
+        return TABLE.size();
+    }
+
+    /**
+     * @param value nonnegative finite number
+     * @return an expression representing value
+     */
+    public static Expression number(double value) {
+        if (value == 0) {
+            return ZERO;
+        }
+        if (value == 1) {
+            return ONE;
+        }
+        if (!interning) {
+            return new Number(value);
+        }
+        return intern(new Key(value), () -> new Number(value));
+    }
+
+    /**
+     * @param value a number
+     * @return an expression representing value
+     * @throws IllegalArgumentException if value is negative or not finite,
+     *         and so cannot be represented by an expression
+     */
+    static Expression constant(double value) {
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Not a nonnegative finite number: " + value);
+        }
+        return number(value);
+    }
+
+    /**
+     * @param name case-sensitive nonempty string of letters
+     * @return an expression representing the variable name
+     */
+    public static Expression variable(String name) {
+        if (!interning) {
+            return new Variable(name);
+        }
+        return intern(new Key(name), () -> new Variable(name));
+    }
+
+    /**
+     * @param operands expressions to add, at least two, in order
+     * @return an expression representing the sum of operands, without simplification
+     */
+    public static Expression add(Expression... operands) {
+        if (!interning) {
+            return new Add(operands);
+        }
+        Expression[] children = operands.clone();
+        return intern(new Key(Key.ADD, children), () -> new Add(children));
+    }
+
+    /**
+     * @param operands expressions to multiply, at least two, in order
+     * @return an expression representing the product of operands, without simplification
+     */
+    public static Expression multiply(Expression... operands) {
+        if (!interning) {
+            return new Multiply(operands);
+        }
+        Expression[] children = operands.clone();
+        return intern(new Key(Key.MULTIPLY, children), () -> new Multiply(children));
+    }
+
+    /*
+     * Return the live node for key, making it with constructor if there is none.
+     */
+    private static Expression intern(Key key, Supplier<Expression> constructor) {
+        expungeCleared();
+        while (true) {
+            Entry entry = TABLE.get(key);
+            Expression existing = entry == null ? null : entry.get();
+            if (existing != null) {
+                return existing;
+            }
+            Expression made = constructor.get();
+            Entry fresh = new Entry(key, made, CLEARED);
+            boolean installed = entry == null
+                    ? TABLE.putIfAbsent(key, fresh) == null
+                    : TABLE.replace(key, entry, fresh);
+            if (installed) {
+                return made;
+            }
+            // lost a race with another thread: retry with its node
+        }
+    }
+
+    // Remove the entries whose nodes have been collected
+    private static void expungeCleared() {
+        Reference<? extends Expression> cleared;
+        while ((cleared = CLEARED.poll()) != null) {
+            Entry entry = (Entry) cleared;
+            TABLE.remove(entry.key, entry);
+        }
+    }
+
+    /*
+     * A weak reference to an interned node, remembering its key for removal.
+     */
+    private static class Entry extends WeakReference<Expression> {
+        final Key key;
+
+        Entry(Key key, Expression node, ReferenceQueue<Expression> queue) {
+            super(node, queue);
+            this.key = key;
+        }
+    }
+
+    /*
+     * The identity of a node: its operator, and its value, name or children.
+     * Children are compared by reference.
+     */
+    private static class Key {
+        static final int NUMBER = 0;
+        static final int VARIABLE = 1;
+        static final int ADD = 2;
+        static final int MULTIPLY = 3;
+
+        final int operator;
+        final long bits;
+        final String name;
+        final Expression[] children;
+        final int hash;
+
+        Key(double value) {
+            this.operator = NUMBER;
+            this.bits = Double.doubleToLongBits(value);
+            this.name = null;
+            this.children = null;
+            this.hash = Long.hashCode(bits);
+        }
+
+        Key(String name) {
+            this.operator = VARIABLE;
+            this.bits = 0;
+            this.name = name;
+            this.children = null;
+            this.hash = name.hashCode();
+        }
+
+        Key(int operator, Expression[] children) {
+            this.operator = operator;
+            this.bits = 0;
+            this.name = null;
+            this.children = children;
+            this.hash = Fingerprints.hash(operator == ADD
+                    ? Fingerprints.add(children)
+                    : Fingerprints.multiply(children));
+        }
+
+        @Override
+        public boolean equals(Object thatObject) {
+            if (!(thatObject instanceof Key)) return false;
+            Key that = (Key) thatObject;
+            if (this.operator != that.operator || this.hash != that.hash) return false;
+            switch (operator) {
+            case NUMBER:
+                return this.bits == that.bits;
+            case VARIABLE:
+                return this.name.equals(that.name);
+            default:
+                if (this.children.length != that.children.length) return false;
+                for (int i = 0; i < children.length; i++) {
+                    if (this.children[i] != that.children[i]) return false;
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
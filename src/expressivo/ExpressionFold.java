@@ -0,0 +1,40 @@
+package expressivo;
+
+import java.util.List;
+
+/**
+ * A computation over an expression from its numbers and variables up, one
+ * node at a time, as run by Expression.fold().
+ *
+ * <p>Each method computes the result for one node from the results for its
+ * operands, and must depend only on its arguments: a subtree that is the same
+ * object in several places is computed once, and its result is reused.
+ *
+ * @param <R> type of the result for each node
+ */
+public interface ExpressionFold<R> {
+
+    /**
+     * @param value value of a number
+     * @return result for the number
+     */
+    R number(double value);
+
+    /**
+     * @param name name of a variable
+     * @return result for the variable
+     */
+    R variable(String name);
+
+    /**
+     * @param operands results for the operands of a sum, at least two, in order
+     * @return result for the sum
+     */
+    R add(List<R> operands);
+
+    /**
+     * @param operands results for the operands of a product, at least two, in order
+     * @return result for the product
+     */
+    R multiply(List<R> operands);
+}
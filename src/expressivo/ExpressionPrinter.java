@@ -0,0 +1,165 @@
+package expressivo;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Prints expressions in one pass into an Appendable, such as a StringBuilder,
+ * or a Writer to a file or socket, without building the text of any subtree
+ * as a string, so printing takes time and extra memory proportional to the
+ * size of the expression, and output of any length can be streamed.
+ *
+ * <p>There are two styles, and both print text that parses to an equal expression:
+ * <ul>
+ * <li>full: every sum and product in parentheses, as Expression.toString(), e.g.
+ *     ((x * y) + (2.0 * (x + 1.0)))
+ * <li>minimal: parentheses only around a sum that is an operand of a sum or product,
+ *     and around a product that is an operand of a product, e.g.
+ *     x * y + 2.0 * (x + 1.0)
+ * </ul>
+ * A sum of sums or product of products keeps its parentheses, because without
+ * them it would parse as one flat sum or product, which is a different
+ * expression. Numbers are printed in plain decimal, e.g. 100000000.0 rather than
+ * 1.0E8, since the grammar has no exponents.
+ *
+ * <p>A Writer given to these methods should be buffered, as they append a few
+ * characters at a time. Printing keeps its place on an explicit stack, so
+ * expressions of any depth can be printed.
+ */
+public final class ExpressionPrinter {
+
+    // what an expression being printed is an operand of
+    private static final int TOP = 0;
+    private static final int SUM = 1;
+    private static final int PRODUCT = 2;
+
+    private ExpressionPrinter() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Print an expression with every sum and product in parentheses.
+     * @param expression expression to print
+     * @param out destination; it is not flushed or closed
+     * @throws IOException if out cannot be written
+     */
+    public static void print(Expression expression, Appendable out) throws IOException {
+        print(expression, out, false, TOP);
+    }
+
+    /**
+     * Print an expression with as few parentheses as parse to an equal expression.
+     * @param expression expression to print
+     * @param out destination; it is not flushed or closed
+     * @throws IOException if out cannot be written
+     */
+    public static void printMinimal(Expression expression, Appendable out) throws IOException {
+        print(expression, out, true, TOP);
+    }
+
+    /**
+     * @param expression an expression
+     * @return expression printed with every sum and product in parentheses, equal to
+     *         expression.toString()
+     */
+    public static String toString(Expression expression) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            print(expression, builder, false, TOP);
+        } catch (IOException e) {
+            throw new AssertionError("StringBuilder does not throw IOException", e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param expression an expression
+     * @return expression printed with minimal parentheses, such that
+     *         Expression.parse(toMinimalString(expression)).equals(expression)
+     */
+    public static String toMinimalString(Expression expression) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            print(expression, builder, true, TOP);
+        } catch (IOException e) {
+            throw new AssertionError("StringBuilder does not throw IOException", e);
+        }
+        return builder.toString();
+    }
+
+    // Print expression, which is an operand of context
+    private static void print(Expression expression, Appendable out, boolean minimal, int context)
+            throws IOException {
+        new Printer(out, minimal).print(expression, context);
+    }
+
+    /*
+     * Prints one expression, keeping the sums and products it is inside of on an explicit
+     * stack rather than the call stack, so that it can print expressions of any depth.
+     */
+    private static final class Printer {
+        private final Appendable out;
+        private final boolean minimal;
+        private Expression[] nodes = new Expression[16];
+        private int[] next = new int[16];
+        private boolean[] parenthesized = new boolean[16];
+        private int top = 0;
+
+        // Abstraction function
+        //   represents printing in progress, in which for each frame i < top, the operands of
+        //   nodes[i] before next[i] have been printed, and nodes[i] is in parentheses iff
+        //   parenthesized[i]
+        // Representation invariant
+        //   nodes[i] is a sum or product, and nodes[i + 1] is its operand next[i] - 1
+        // Safety from rep exposure
+        //   all fields are private, and the class is not exposed
+
+        Printer(Appendable out, boolean minimal) {
+            this.out = out;
+            this.minimal = minimal;
+        }
+
+        void print(Expression expression, int context) throws IOException {
+            open(expression, context);
+            while (top > 0) {
+                Expression node = nodes[top - 1];
+                int i = next[top - 1];
+                if (i == Traversal.arity(node)) {
+                    if (parenthesized[top - 1]) {
+                        out.append(')');
+                    }
+                    nodes[--top] = null;
+                    continue;
+                }
+                boolean isAdd = node instanceof Add;
+                if (i > 0) {
+                    out.append(isAdd ? " + " : " * ");
+                }
+                next[top - 1]++;
+                open(Traversal.operand(node, i), isAdd ? SUM : PRODUCT);
+            }
+        }
+
+        // Print a number or variable, or start printing a sum or product
+        private void open(Expression expression, int context) throws IOException {
+            boolean isAdd = expression instanceof Add;
+            if (!isAdd && !(expression instanceof Multiply)) {
+                out.append(expression.toString());
+                return;
+            }
+            boolean parens = !minimal || (isAdd ? context != TOP : context == PRODUCT);
+            if (parens) {
+                out.append('(');
+            }
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                next = Arrays.copyOf(next, 2 * top);
+                parenthesized = Arrays.copyOf(parenthesized, 2 * top);
+            }
+            nodes[top] = expression;
+            next[top] = 0;
+            parenthesized[top] = parens;
+            top++;
+        }
+    }
+}
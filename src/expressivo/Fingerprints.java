@@ -0,0 +1,85 @@
+package expressivo;
+
+/**
+ * 64-bit structural fingerprints of expressions.
+ *
+ * <p>A fingerprint depends on the operator of a node, its value or name, and
+ * the fingerprints of its children in order, and is mixed so that all of its
+ * bits depend on all of those. Structurally equal expressions have equal
+ * fingerprints; unequal expressions have equal fingerprints with probability
+ * about 2^-64.
+ */
+final class Fingerprints {
+
+    private static final long NUMBER_SEED = 0x6a09e667f3bcc908L;
+    private static final long VARIABLE_SEED = 0xbb67ae8584caa73bL;
+    private static final long ADD_SEED = 0x3c6ef372fe94f82bL;
+    private static final long MULTIPLY_SEED = 0xa54ff53a5f1d36f1L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private Fingerprints() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param value a number, not -0.0
+     * @return fingerprint of the Number representing value
+     */
+    static long number(double value) {
+        return mix(NUMBER_SEED ^ mix(Double.doubleToLongBits(value)));
+    }
+
+    /**
+     * @param name a variable name
+     * @return fingerprint of the Variable representing name
+     */
+    static long variable(String name) {
+        long hash = VARIABLE_SEED;
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param operands operands of an Add
+     * @return fingerprint of the Add of operands
+     */
+    static long add(Expression[] operands) {
+        return combine(ADD_SEED, operands);
+    }
+
+    /**
+     * @param operands operands of a Multiply
+     * @return fingerprint of the Multiply of operands
+     */
+    static long multiply(Expression[] operands) {
+        return combine(MULTIPLY_SEED, operands);
+    }
+
+    /**
+     * @param fingerprint a fingerprint
+     * @return a 32-bit hash code derived from fingerprint
+     */
+    static int hash(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    // Order-dependent combination of the children's fingerprints
+    private static long combine(long seed, Expression[] operands) {
+        long hash = seed + operands.length * GOLDEN_GAMMA;
+        for (Expression operand : operands) {
+            hash = mix(hash + GOLDEN_GAMMA) ^ operand.fingerprint();
+        }
+        return mix(hash);
+    }
+
+    // The finalizer of SplitMix64: a bijection in which every input bit affects every output bit
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
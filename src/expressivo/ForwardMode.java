@@ -0,0 +1,159 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Evaluates an expression together with its derivatives along one or more
+ * directions, by forward-mode automatic differentiation.
+ *
+ * <p>Each variable has a value and a tangent: its rate of change along each
+ * direction. One pass over the distinct nodes of the expression, operands
+ * before the nodes that use them, carries (value, tangent) pairs, or a value
+ * with k tangents, from the variables up through sums and products, using
+ *     (a + b)' = a' + b'        (a * b)' = a' * b + a * b'
+ * so the result is the value of the expression and its directional
+ * derivatives, without building a derivative expression. With a tangent of 1
+ * for variable x and 0 for the others, the derivative is d/dx.
+ *
+ * <p>A subtree that is the same object in several places, as in derivatives,
+ * is computed once, so the pass takes time proportional to the distinct nodes,
+ * and it keeps its place on an explicit stack, so it works at any depth.
+ *
+ * <p>For repeated evaluation, CompiledExpression.evaluateDual() does the same
+ * with compiled code.
+ */
+public final class ForwardMode {
+
+    private ForwardMode() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Evaluate an expression and its derivative along one direction.
+     * @param expression an expression
+     * @param environment maps each variable of expression to its value
+     * @param direction maps variables to their rates of change; other variables have rate 0
+     * @return an array of two: the value of expression at environment, and its derivative
+     *         along direction there
+     * @throws IllegalArgumentException if a variable of expression has no value in environment
+     */
+    public static double[] evaluate(Expression expression, Map<String, Double> environment,
+            Map<String, Double> direction) {
+        return evaluate(expression, 1, (name, out, base) -> {
+            out[base] = valueOf(environment, name);
+            Double rate = direction.get(name);
+            out[base + 1] = rate == null ? 0 : rate;
+        });
+    }
+
+    /**
+     * Evaluate an expression and its derivatives along k directions at once.
+     * @param expression an expression
+     * @param environment maps each variable of expression to its value
+     * @param tangents maps variables to arrays of k rates of change, the j-th along the
+     *        j-th direction; other variables have rate 0 along every direction
+     * @param k number of directions, nonnegative
+     * @return an array of k + 1: the value of expression at environment, then its
+     *         derivative along each direction there
+     * @throws IllegalArgumentException if a variable of expression has no value in environment,
+     *         or an array of tangents is shorter than k
+     */
+    public static double[] evaluate(Expression expression, Map<String, Double> environment,
+            Map<String, double[]> tangents, int k) {
+        for (Map.Entry<String, double[]> entry : tangents.entrySet()) {
+            if (entry.getValue().length < k) {
+                throw new IllegalArgumentException("Fewer than " + k + " tangents for " + entry.getKey());
+            }
+        }
+        return evaluate(expression, k, (name, out, base) -> {
+            out[base] = valueOf(environment, name);
+            double[] rates = tangents.get(name);
+            for (int j = 0; j < k; j++) {
+                out[base + 1 + j] = rates == null ? 0 : rates[j];
+            }
+        });
+    }
+
+    /**
+     * Evaluate an expression and its derivative along one direction, with the values and
+     * rates of change of the variables given by slot.
+     * @param expression an expression
+     * @param slots maps each variable of expression to its slot
+     * @param values values of the variables, by slot
+     * @param tangents rates of change of the variables, by slot
+     * @param result receives the value in result[0] and the derivative in result[1]
+     */
+    static void evaluate(Expression expression, Map<String, Integer> slots,
+            double[] values, double[] tangents, double[] result) {
+        double[] dual = evaluate(expression, 1, (name, out, base) -> {
+            int slot = slots.get(name);
+            out[base] = values[slot];
+            out[base + 1] = tangents[slot];
+        });
+        result[0] = dual[0];
+        result[1] = dual[1];
+    }
+
+    private static double valueOf(Map<String, Double> environment, String name) {
+        Double value = environment.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("No value for variable: " + name);
+        }
+        return value;
+    }
+
+    /*
+     * Source of the value and tangents of each variable.
+     */
+    private interface Leaves {
+        // Store the value of variable name in out[base], and its k tangents after it
+        void load(String name, double[] out, int base);
+    }
+
+    /*
+     * Return the value of expression and its k tangents. Each distinct node, in postorder,
+     * gets a frame of k + 1 doubles holding its value and tangents.
+     */
+    private static double[] evaluate(Expression expression, int k, Leaves leaves) {
+        int width = k + 1;
+        Map<Expression, Integer> frameOf = new IdentityHashMap<>();
+        double[] frames = new double[16 * width];
+        int base = 0;
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            base = frameOf.size() * width;
+            if (base + width > frames.length) {
+                frames = Arrays.copyOf(frames, 2 * frames.length);
+            }
+            if (node instanceof Number) {
+                frames[base] = ((Number) node).value();
+                Arrays.fill(frames, base + 1, base + width, 0);
+            } else if (node instanceof Variable) {
+                leaves.load(((Variable) node).name(), frames, base);
+            } else {
+                boolean isAdd = node instanceof Add;
+                System.arraycopy(frames, frameOf.get(Traversal.operand(node, 0)), frames, base, width);
+                for (int i = 1; i < Traversal.arity(node); i++) {
+                    int operand = frameOf.get(Traversal.operand(node, i));
+                    if (isAdd) {
+                        for (int j = 0; j <= k; j++) {
+                            frames[base + j] += frames[operand + j];
+                        }
+                    } else {
+                        double a = frames[base];
+                        double b = frames[operand];
+                        for (int j = 1; j <= k; j++) {
+                            frames[base + j] = frames[base + j] * b + a * frames[operand + j];
+                        }
+                        frames[base] = a * b;
+                    }
+                }
+            }
+            frameOf.put(node, base);
+        }
+        // the expression itself comes last
+        return Arrays.copyOfRange(frames, base, base + width);
+    }
+}
@@ -0,0 +1,310 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the value and the gradient of an expression at a point, by
+ * reverse-mode automatic differentiation.
+ *
+ * <p>The expression is recorded once onto a tape: an array of nodes in which
+ * every operand comes before the sum or product that uses it, and a subtree
+ * that is the same object in several places is recorded once. At each point, a
+ * forward sweep computes the value of every node, and one backward sweep
+ * propagates the derivative of the result with respect to each node down to
+ * the variables, giving all the partial derivatives at once, in time
+ * proportional to the size of the tape however many variables there are.
+ *
+ * <p>The tape keeps its value and adjoint arrays between points, so evaluating
+ * at another point allocates nothing. For the same reason a GradientTape is
+ * mutable and must not be used by several threads at once; make one per thread.
+ */
+public final class GradientTape {
+
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int ADD = 2;
+    private static final int MULTIPLY = 3;
+
+    private final Expression expression;
+    private final List<String> variables;
+    private final int[] opcodes;
+    private final int[] arguments;
+    private final int[] firstChild;
+    private final int[] children;
+    private final double[] constants;
+    private final double[] values;
+    private final double[] adjoints;
+    private final double[] suffix;
+
+    // Abstraction function
+    //   represents the expression recorded as nodes 0..opcodes.length-1, the last of which
+    //   is the result; node i is constants[arguments[i]] if opcodes[i] is CONSTANT, variable
+    //   variables.get(arguments[i]) if VARIABLE, and the sum or product of the nodes
+    //   children[firstChild[i] .. firstChild[i+1]) if ADD or MULTIPLY;
+    //   values and adjoints hold the value of each node, and the derivative of the result
+    //   with respect to it, at the last point evaluated
+    // Representation invariant
+    //   every child of node i is less than i; sums and products have at least two children
+    //   firstChild.length == opcodes.length + 1, and firstChild is nondecreasing
+    //   variables are the distinct variables of expression, in order of first appearance
+    //   values.length == adjoints.length == opcodes.length; suffix is as long as the
+    //   largest number of children
+    // Safety from rep exposure
+    //   all fields are private and final, no array is returned, and variables is unmodifiable
+
+    /**
+     * Record an expression onto a tape.
+     * @param expression expression to differentiate
+     */
+    public GradientTape(Expression expression) {
+        Recorder recorder = new Recorder();
+        recorder.record(expression);
+        this.expression = expression;
+        this.variables = Collections.unmodifiableList(new ArrayList<>(recorder.slots.keySet()));
+        this.opcodes = toArray(recorder.opcodes);
+        this.arguments = toArray(recorder.arguments);
+        this.firstChild = toArray(recorder.firstChild);
+        this.children = toArray(recorder.children);
+        this.constants = new double[recorder.constants.size()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = recorder.constants.get(i);
+        }
+        this.values = new double[opcodes.length];
+        this.adjoints = new double[opcodes.length];
+        this.suffix = new double[recorder.maxArity + 1];
+    }
+
+    /**
+     * @return the expression recorded on this tape
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * @return the variables of the expression, in order of first appearance, which is the
+     *         order of their values and partial derivatives in evaluate() and gradient()
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * @return number of nodes on the tape
+     */
+    public int length() {
+        return opcodes.length;
+    }
+
+    /**
+     * Evaluate the expression at a point.
+     * @param point point[i] is the value of variables().get(i); may be longer
+     * @return the value of the expression at point
+     * @throws IllegalArgumentException if point is shorter than variables()
+     */
+    public double evaluate(double[] point) {
+        checkLength(point, "point");
+        forward(point);
+        return values[values.length - 1];
+    }
+
+    /**
+     * Compute the value and gradient of the expression at a point.
+     * @param point point[i] is the value of variables().get(i); may be longer
+     * @param gradient receives in gradient[i] the partial derivative of the expression
+     *        with respect to variables().get(i) at point; may be longer
+     * @return the value of the expression at point
+     * @throws IllegalArgumentException if point or gradient is shorter than variables()
+     */
+    public double gradient(double[] point, double[] gradient) {
+        checkLength(point, "point");
+        checkLength(gradient, "gradient");
+        forward(point);
+        backward(gradient);
+        return values[values.length - 1];
+    }
+
+    /**
+     * Compute the gradient of the expression at a point.
+     * @param environment maps each variable of the expression to its value
+     * @return map from each variable of the expression to the partial derivative of the
+     *         expression with respect to it at environment
+     * @throws IllegalArgumentException if a variable of the expression has no value in environment
+     */
+    public Map<String, Double> gradient(Map<String, Double> environment) {
+        double[] point = new double[variables.size()];
+        for (int i = 0; i < point.length; i++) {
+            Double value = environment.get(variables.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable: " + variables.get(i));
+            }
+            point[i] = value;
+        }
+        double[] gradient = new double[point.length];
+        gradient(point, gradient);
+        Map<String, Double> partials = new LinkedHashMap<>();
+        for (int i = 0; i < gradient.length; i++) {
+            partials.put(variables.get(i), gradient[i]);
+        }
+        return partials;
+    }
+
+    private void checkLength(double[] array, String name) {
+        if (array.length < variables.size()) {
+            throw new IllegalArgumentException(name + " has " + array.length + " values, expected "
+                    + variables.size());
+        }
+    }
+
+    // Compute the value of every node at point
+    private void forward(double[] point) {
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+            case CONSTANT:
+                values[i] = constants[arguments[i]];
+                break;
+            case VARIABLE:
+                values[i] = point[arguments[i]];
+                break;
+            case ADD: {
+                double sum = values[children[firstChild[i]]];
+                for (int c = firstChild[i] + 1; c < firstChild[i + 1]; c++) {
+                    sum += values[children[c]];
+                }
+                values[i] = sum;
+                break;
+            }
+            default: {
+                double product = values[children[firstChild[i]]];
+                for (int c = firstChild[i] + 1; c < firstChild[i + 1]; c++) {
+                    product *= values[children[c]];
+                }
+                values[i] = product;
+                break;
+            }
+            }
+        }
+    }
+
+    // Propagate derivatives of the result from each node to its children, and
+    // collect them at the variables into gradient
+    private void backward(double[] gradient) {
+        Arrays.fill(gradient, 0, variables.size(), 0);
+        Arrays.fill(adjoints, 0);
+        adjoints[adjoints.length - 1] = 1;
+        for (int i = opcodes.length - 1; i >= 0; i--) {
+            double adjoint = adjoints[i];
+            if (adjoint == 0) {
+                continue;
+            }
+            int first = firstChild[i];
+            int end = firstChild[i + 1];
+            switch (opcodes[i]) {
+            case CONSTANT:
+                break;
+            case VARIABLE:
+                gradient[arguments[i]] += adjoint;
+                break;
+            case ADD:
+                for (int c = first; c < end; c++) {
+                    adjoints[children[c]] += adjoint;
+                }
+                break;
+            default: {
+                // the derivative with respect to a factor is the product of the other factors,
+                // found from prefix and suffix products so that a zero factor needs no division
+                int n = end - first;
+                suffix[n] = 1;
+                for (int k = n - 1; k >= 0; k--) {
+                    suffix[k] = suffix[k + 1] * values[children[first + k]];
+                }
+                double prefix = adjoint;
+                for (int k = 0; k < n; k++) {
+                    adjoints[children[first + k]] += prefix * suffix[k + 1];
+                    prefix *= values[children[first + k]];
+                }
+                break;
+            }
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "GradientTape" + variables + "[" + opcodes.length + " nodes]: " + expression;
+    }
+
+    /*
+     * Records an expression in postorder, recording each distinct object once.
+     */
+    private static class Recorder {
+        final List<Integer> opcodes = new ArrayList<>();
+        final List<Integer> arguments = new ArrayList<>();
+        final List<Integer> firstChild = new ArrayList<>(Collections.singletonList(0));
+        final List<Integer> children = new ArrayList<>();
+        final List<Double> constants = new ArrayList<>();
+        final Map<String, Integer> slots = new LinkedHashMap<>();
+        final Map<Double, Integer> constantIndex = new HashMap<>();
+        final Map<Expression, Integer> recorded = new IdentityHashMap<>();
+        int maxArity = 0;
+
+        // Record expression and its subtrees, each distinct object once
+        void record(Expression expression) {
+            for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+                Expression node = nodes.next();
+                int index;
+                if (node instanceof Number) {
+                    double value = ((Number) node).value();
+                    Integer constant = constantIndex.get(value);
+                    if (constant == null) {
+                        constant = constants.size();
+                        constants.add(value);
+                        constantIndex.put(value, constant);
+                    }
+                    index = emit(CONSTANT, constant, new int[0]);
+                } else if (node instanceof Variable) {
+                    String name = ((Variable) node).name();
+                    Integer slot = slots.get(name);
+                    if (slot == null) {
+                        slot = slots.size();
+                        slots.put(name, slot);
+                    }
+                    index = emit(VARIABLE, slot, new int[0]);
+                } else {
+                    int[] operands = new int[Traversal.arity(node)];
+                    for (int i = 0; i < operands.length; i++) {
+                        operands[i] = recorded.get(Traversal.operand(node, i));
+                    }
+                    index = emit(node instanceof Add ? ADD : MULTIPLY, 0, operands);
+                }
+                recorded.put(node, index);
+            }
+        }
+
+        private int emit(int opcode, int argument, int[] operands) {
+            opcodes.add(opcode);
+            arguments.add(argument);
+            for (int operand : operands) {
+                children.add(operand);
+            }
+            firstChild.add(children.size());
+            maxArity = Math.max(maxArity, operands.length);
+            return opcodes.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package expressivo;
+
+/**
+ * Decoding of NUMBER and VARIABLE tokens straight from the input characters.
+ *
+ * <p>Numbers are decoded into a primitive double without building a String,
+ * except for literals with too many digits to decode exactly, which fall back
+ * to Double.parseDouble(). Variable names are looked up in a symbol table, so
+ * repeated occurrences of a name share one String.
+ */
+final class Lexemes {
+
+    // 10^k for 0 <= k <= 22, which are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    // Integers of up to this many digits fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    // Integers of up to this many digits are exactly representable as doubles
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    // The names of one letter, indexed by character
+    private static final String[] LETTERS = new String[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LETTERS[c] = String.valueOf(c);
+            LETTERS[Character.toUpperCase(c)] = String.valueOf(Character.toUpperCase(c));
+        }
+    }
+
+    // A direct-mapped cache of longer names, indexed by the low bits of their hash.
+    // Slots are written without locking: a reader sees either null or some
+    // complete, immutable String, and always checks that it is the name it wants.
+    private static final int SYMBOL_TABLE_SIZE = 1 << 12;
+    private static final String[] SYMBOLS = new String[SYMBOL_TABLE_SIZE];
+
+    private Lexemes() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Decode a NUMBER token.
+     * @param input characters containing the token
+     * @param start index of the first character of the token
+     * @param end index after the last character of the token;
+     *        input[start..end) must match [0-9]+('.'[0-9]+)?
+     * @return the value of the token, as Double.parseDouble() would compute it
+     */
+    static double number(CharSequence input, int start, int end) {
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '.') {
+                fractionDigits = 0;
+                continue;
+            }
+            if (++digits > MAX_LONG_DIGITS) {
+                return Double.parseDouble(input.subSequence(start, end).toString());
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (fractionDigits < 0) {
+            // integer: conversion from long rounds correctly
+            return mantissa;
+        }
+        if (digits <= MAX_EXACT_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+            // both operands are exact, so the quotient is correctly rounded
+            return mantissa / POWERS_OF_TEN[fractionDigits];
+        }
+        return Double.parseDouble(input.subSequence(start, end).toString());
+    }
+
+    /**
+     * Decode a VARIABLE token.
+     * @param input characters containing the token
+     * @param start index of the first character of the token
+     * @param end index after the last character of the token;
+     *        input[start..end) must match [a-zA-Z]+
+     * @return the name input[start..end), shared with other occurrences of that name where possible
+     */
+    static String variable(CharSequence input, int start, int end) {
+        if (end - start == 1) {
+            return LETTERS[input.charAt(start)];
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SYMBOL_TABLE_SIZE - 1);
+        String symbol = SYMBOLS[slot];
+        if (symbol != null && regionEquals(symbol, input, start, end)) {
+            return symbol;
+        }
+        symbol = input.subSequence(start, end).toString();
+        SYMBOLS[slot] = symbol;
+        return symbol;
+    }
+
+    private static boolean regionEquals(String symbol, CharSequence input, int start, int end) {
+        if (symbol.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != input.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,12 +1,24 @@
 package expressivo;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,16 +33,66 @@ public class Main {
     private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *";
     private static final String ASSIGNMENT = "(" + VARIABLE + ") *= *([^ ]+)";
     private static final String SIMPLIFY = SIMPLIFY_PREFIX + "( +" + ASSIGNMENT + ")* *";
+    private static final Pattern DIFFERENTIATE_PATTERN = Pattern.compile(DIFFERENTIATE);
+    private static final Pattern SIMPLIFY_PATTERN = Pattern.compile(SIMPLIFY);
+    private static final Pattern ASSIGNMENT_PATTERN = Pattern.compile(ASSIGNMENT);
+    
+    private static final String INGEST_FLAG = "--ingest";
+    private static final String BATCH_FLAG = "--batch";
+    private static final String TIMING_FLAG = "--timing";
+    private static final String GENERATE_FLAG = "--generate";
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    // longest text of an expression the console displays
+    private static final int DISPLAY_LIMIT = 2000;
     
     /**
      * Read expression and command inputs from the console and output results.
      * An empty input terminates the program.
-     * @param args unused
-     * @throws IOException if there is an error reading the input
+     * 
+     * <p>Alternatively, with arguments
+     *     --ingest INPUT OUTPUT [COMMAND]
+     * process the file INPUT of newline-delimited expressions on all cores,
+     * writing each expression, or the result of the !d/d or !simplify COMMAND
+     * applied to it, to the same line of OUTPUT.
+     * 
+     * <p>With arguments
+     *     --batch [--timing] [SCRIPT ...]
+     * or with no arguments when there is no console because standard input or
+     * output is redirected, run the same inputs as the console, one per line,
+     * from each SCRIPT file in turn or from standard input, without prompts or
+     * status messages. Each input writes one
+     * line to standard output: the current expression after it, or an error.
+     * Blank lines are skipped. With --timing, the time taken by each input is
+     * reported on standard error.
+     * 
+     * <p>With arguments
+     *     --generate OUTPUT LINES [SETTING=VALUE ...]
+     * write a corpus of LINES random expressions to the file OUTPUT, one per line,
+     * with the CorpusGenerator settings seed, nodes (N or MIN-MAX), depth, fanout,
+     * spine, variables, constants, max-constant, decimals and repetition.
+     * @param args empty, or a command as above
+     * @throws IOException if there is an error reading the input or writing the output
      */
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals(BATCH_FLAG)) {
+            runBatch(Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals(GENERATE_FLAG)) {
+            runGenerate(args);
+            return;
+        }
+        if (args.length > 0) {
+            runIngest(args);
+            return;
+        }
+        if (System.console() == null) {
+            runBatch(Collections.emptyList());
+            return;
+        }
+        
         final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Optional<String> currentExpression = Optional.empty();  // Holds the current expression
+        Optional<Expression> currentExpression = Optional.empty();  // Holds the current expression
         
         while (true) {
             System.out.print("> ");
@@ -42,7 +104,7 @@ public class Main {
             }
             
             try {
-                final String output;
+                final Expression output;
                 
                 // Check if input starts with differentiate prefix
                 if (input.startsWith(DIFFERENTIATE_PREFIX)) {
@@ -70,25 +132,236 @@ public class Main {
                 } 
                 // Regular expression input (new expression)
                 else {
-                    final Expression expression = Expression.parse(input);
-                    output = expression.toString();
+                    output = Expression.parse(input);
                     currentExpression = Optional.of(output); // Store the newly parsed expression
                     System.out.println("Expression parsed successfully.");
                 }
                 
-                System.out.println("Current expression: " + currentExpression.get());
+                System.out.println("Current expression: " + display(currentExpression.get()));
             } catch (NoSuchElementException nse) {
                 // currentExpression was empty
                 System.out.println("Error: You must enter an expression before using this command.");
-            } catch (RuntimeException re) {
-                System.out.println("Error: " + re.getClass().getName() + ": " + re.getMessage());
+            } catch (RuntimeException | StackOverflowError e) {
+                System.out.println("Error: " + e.getClass().getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Runs the --batch command on the scripts and flags in args, or on standard input if
+    // there are no scripts
+    private static void runBatch(final List<String> args) throws IOException {
+        final boolean timing = args.contains(TIMING_FLAG);
+        final List<String> scripts = new ArrayList<>(args);
+        scripts.removeAll(Collections.singleton(TIMING_FLAG));
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                OUTPUT_BUFFER_SIZE);
+        final PrintWriter err = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.err, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE));
+        final Batch batch = new Batch(out, timing ? err : null);
+        try {
+            if (scripts.isEmpty()) {
+                batch.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), "-");
+            }
+            for (String script : scripts) {
+                try (BufferedReader in = Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+                    batch.run(in, script);
+                }
+            }
+            if (timing) {
+                err.printf("%d inputs in %.3f ms%n", batch.inputs, batch.nanos / 1e6);
+            }
+        } finally {
+            out.flush();
+            err.flush();
+        }
+    }
+
+    /*
+     * The state of a --batch run: the current expression, carried from one input to the next
+     * and from one script to the next, and the inputs run so far.
+     */
+    private static class Batch {
+        private final Writer out;
+        private final PrintWriter timing;
+        private Optional<Expression> current = Optional.empty();
+        int inputs = 0;
+        long nanos = 0;
+
+        // timing is where to report the time of each input, or null not to
+        Batch(final Writer out, final PrintWriter timing) {
+            this.out = out;
+            this.timing = timing;
+        }
+
+        // Runs the inputs of in, the script named name, writing one line for each
+        void run(final BufferedReader in, final String name) throws IOException {
+            int lineNumber = 0;
+            for (String input = in.readLine(); input != null; input = in.readLine()) {
+                lineNumber++;
+                if (input.trim().isEmpty()) {
+                    continue;
+                }
+                final long start = System.nanoTime();
+                try {
+                    current = Optional.of(execute(input, current));
+                    ExpressionPrinter.print(current.get(), out);
+                } catch (NoSuchElementException nse) {
+                    out.write("Error: You must enter an expression before using this command.");
+                } catch (RuntimeException | StackOverflowError e) {
+                    out.write("Error: " + e.getClass().getName() + ": " + e.getMessage());
+                }
+                out.write('\n');
+                final long elapsed = System.nanoTime() - start;
+                inputs++;
+                nanos += elapsed;
+                if (timing != null) {
+                    timing.printf("%s:%d: %.3f ms%n", name, lineNumber, elapsed / 1e6);
+                }
+            }
+        }
+    }
+
+    // Applies the console input to the current expression, and returns the new current expression
+    private static Expression execute(final String input, final Optional<Expression> current) {
+        if (input.startsWith(DIFFERENTIATE_PREFIX)) {
+            final String variable = parseDifferentiate(input);
+            return Commands.differentiate(current.get(), variable);
+        } else if (input.startsWith(SIMPLIFY_PREFIX)) {
+            final Map<String, Double> environment = parseSimplify(input);
+            return Commands.simplify(current.get(), environment);
+        } else {
+            return Expression.parse(input);
+        }
+    }
+
+    // Runs the --ingest command, reporting errors and throughput on standard error
+    private static void runIngest(final String[] args) throws IOException {
+        if (!args[0].equals(INGEST_FLAG) || args.length < 3) {
+            System.err.println("Usage: " + INGEST_FLAG + " INPUT OUTPUT [" + DIFFERENTIATE_PREFIX + "VARIABLE | "
+                    + SIMPLIFY_PREFIX + " VARIABLE=VALUE ...]");
+            System.err.println("   or: " + BATCH_FLAG + " [" + TIMING_FLAG + "] [SCRIPT ...]");
+            System.err.println("   or: " + GENERATE_FLAG + " OUTPUT LINES [SETTING=VALUE ...]");
+            System.err.println("With no arguments, read inputs at the console, or as " + BATCH_FLAG
+                    + " from standard input when there is no console.");
+            System.exit(2);
+        }
+        final String command = String.join(" ", Arrays.asList(args).subList(3, args.length));
+        final UnaryOperator<Expression> transform;
+        final DerivativeStatistics statistics = new DerivativeStatistics();
+        if (command.startsWith(DIFFERENTIATE_PREFIX)) {
+            final String variable = parseDifferentiate(command);
+            transform = expression -> {
+                final Expression derivative = expression.differentiate(variable);
+                statistics.record(expression, variable, derivative);
+                return derivative;
+            };
+        } else if (command.startsWith(SIMPLIFY_PREFIX)) {
+            final Map<String, Double> environment = parseSimplify(command);
+            transform = expression -> expression.simplify(environment);
+        } else if (command.isEmpty()) {
+            transform = UnaryOperator.identity();
+        } else {
+            throw new CommandSyntaxException("Unknown command: " + command);
+        }
+        final BulkProcessor.Report report = new BulkProcessor().process(Paths.get(args[1]), Paths.get(args[2]), transform);
+        for (BulkProcessor.LineError error : report.getErrors()) {
+            System.err.println("Error: " + error);
+        }
+        System.err.println(report);
+        if (statistics.derivatives() > 0) {
+            System.err.println(statistics);
+        }
+    }
+
+    // Runs the --generate command, reporting the size and throughput on standard error
+    private static void runGenerate(final String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: " + GENERATE_FLAG + " OUTPUT LINES [SETTING=VALUE ...]");
+            System.exit(2);
+        }
+        final CorpusGenerator.Builder builder = CorpusGenerator.builder();
+        for (final String setting : Arrays.asList(args).subList(3, args.length)) {
+            final int equals = setting.indexOf('=');
+            final String name = equals < 0 ? setting : setting.substring(0, equals);
+            final String value = setting.substring(equals + 1);
+            try {
+                switch (name) {
+                case "seed": builder.seed(Long.parseLong(value)); break;
+                case "nodes": {
+                    final String[] range = value.split("-", 2);
+                    builder.nodes(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+                    break;
+                }
+                case "depth": builder.maxDepth(Integer.parseInt(value)); break;
+                case "fanout": builder.maxFanOut(Integer.parseInt(value)); break;
+                case "spine": builder.spine(Double.parseDouble(value)); break;
+                case "variables": builder.variables(Integer.parseInt(value)); break;
+                case "constants": builder.constants(Double.parseDouble(value)); break;
+                case "max-constant": builder.maxConstant(Integer.parseInt(value)); break;
+                case "decimals": builder.decimals(Double.parseDouble(value)); break;
+                case "repetition": builder.repetition(Double.parseDouble(value)); break;
+                default: throw new CommandSyntaxException("Unknown setting: " + setting);
+                }
+            } catch (NumberFormatException e) {
+                throw new CommandSyntaxException("Bad value: " + setting);
+            }
+        }
+        final long lines = Long.parseLong(args[2]);
+        final long startTime = System.nanoTime();
+        final long bytes = builder.build().write(Paths.get(args[1]), lines);
+        final double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+        System.err.println(String.format("%d lines, %d bytes in %.3f s (%.1f MB/s)",
+                lines, bytes, seconds, bytes / seconds / 1e6));
+    }
+
+    // Text of expression, cut off after DISPLAY_LIMIT characters; a huge expression is
+    // printed only as far as it is displayed
+    static String display(final Expression expression) {
+        final LimitedText text = new LimitedText();
+        try {
+            ExpressionPrinter.print(expression, text);
+            return text.builder.toString();
+        } catch (IOException full) {
+            text.builder.setLength(DISPLAY_LIMIT);
+            return text.builder.append("... (").append(expression.size()).append(" nodes)").toString();
+        }
+    }
+
+    /*
+     * Text that stops printing, by throwing IOException, once it is longer than DISPLAY_LIMIT.
+     */
+    private static class LimitedText implements Appendable {
+        final StringBuilder builder = new StringBuilder();
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            builder.append(csq);
+            return checkLength();
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            builder.append(csq, start, end);
+            return checkLength();
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            builder.append(c);
+            return checkLength();
+        }
+
+        private Appendable checkLength() throws IOException {
+            if (builder.length() > DISPLAY_LIMIT) {
+                throw new IOException("display limit reached");
             }
+            return this;
         }
     }
 
     // Parses the variable to differentiate the expression with respect to
     private static String parseDifferentiate(final String input) {
-        final Matcher commandMatcher = Pattern.compile(DIFFERENTIATE).matcher(input);
+        final Matcher commandMatcher = DIFFERENTIATE_PATTERN.matcher(input);
         if (!commandMatcher.matches()) {
             throw new CommandSyntaxException("Usage: !d/d <variable> - Please provide a variable (e.g., !d/d x)");
         }
@@ -97,13 +370,13 @@ public class Main {
 
     // Parses the simplify command and builds a map of variables and their values
     private static Map<String, Double> parseSimplify(final String input) {
-        final Matcher commandMatcher = Pattern.compile(SIMPLIFY).matcher(input);
+        final Matcher commandMatcher = SIMPLIFY_PATTERN.matcher(input);
         if (!commandMatcher.matches()) {
             throw new CommandSyntaxException("Usage: !simplify var1=val1 var2=val2 ... - Please provide valid variables and values.");
         }
         
         final Map<String, Double> environment = new HashMap<>();
-        final Matcher argumentMatcher = Pattern.compile(ASSIGNMENT).matcher(input);
+        final Matcher argumentMatcher = ASSIGNMENT_PATTERN.matcher(input);
         while (argumentMatcher.find()) {
             final String variable = argumentMatcher.group(1);
             final double value = Double.valueOf(argumentMatcher.group(2));
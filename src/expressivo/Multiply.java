@@ -1,28 +1,48 @@
 package expressivo;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * An immutable data type representing an expression
- * that is the product of two expressions.
+ * that is the product of two or more expressions.
  */
 public class Multiply implements Expression {
-    private final Expression left;
-    private final Expression right;
+    private final Expression[] operands;
+    private final long fingerprint;
+    private final long size;
+    private final int depth;
     
     // Abstraction function
-    //   represents the product of the expressions this.left and this.right
+    //   represents the product operands[0] * operands[1] * ... * operands[n-1],
+    //   where n = operands.length
     // Representation invariant
-    //   both left and right are non-null
+    //   operands.length >= 2, and all operands are non-null
+    //   fingerprint, size and depth are those of the operands combined, as
+    //   computed by the constructor
     // Safety from rep exposure
-    //   all fields are private and final
+    //   all fields are private and final;
+    //   operands is copied on construction and never returned
     
     /**
      * Make a Multiply.
-     * @param left the left expression
-     * @param right the right expression
+     * @param operands the expressions to multiply, at least two, in order
      */
-    public Multiply(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+    public Multiply(Expression... operands) {
+        this.operands = operands.clone();
+        long size = 1;
+        int depth = 0;
+        for (Expression operand : this.operands) {
+            size += operand.size();
+            if (size < 0) {
+                size = Long.MAX_VALUE;
+            }
+            depth = Math.max(depth, operand.depth());
+        }
+        this.fingerprint = Fingerprints.multiply(this.operands);
+        this.size = size;
+        this.depth = depth + 1;
         checkRep();
     }
     
@@ -31,31 +51,117 @@ public class Multiply implements Expression {
      * @throws AssertionError if the representation invariant is violated
      */
     private void checkRep() {
-        assert left != null;
-        assert right != null;
+        assert operands.length >= 2;
+        for (Expression operand : operands) {
+            assert operand != null;
+        }
+    }
+    
+    /**
+     * @return number of operands of this product, at least 2
+     */
+    int arity() {
+        return operands.length;
+    }
+    
+    /**
+     * @param i index of an operand, 0 <= i < arity()
+     * @return the i-th operand of this product
+     */
+    Expression operand(int i) {
+        return operands[i];
     }
 
     @Override 
     public String toString() {
-        return "(" + left.toString() + " * " + right.toString() + ")";
+        // One pass into one builder, rather than a string for every subtree
+        return ExpressionPrinter.toString(this);
     }
     
     @Override 
     public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
         if (!(thatObject instanceof Multiply)) return false;
-        Multiply that = (Multiply) thatObject;
-        return this.left.equals(that.left) && this.right.equals(that.right);
+        // Compare node by node on an explicit stack, at any depth
+        return Traversal.equal(this, (Multiply) thatObject);
     }
     
     @Override 
     public int hashCode() {
-        return left.hashCode() + right.hashCode();
+        return Fingerprints.hash(fingerprint);
+    }
+    
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+    
+    @Override
+    public long size() {
+        return size;
+    }
+    
+    @Override
+    public int depth() {
+        return depth;
     }
 
     @Override
     public Expression differentiate(String var) {
-        // The derivative of a product is the sum of the product of the derivative of the left expression and the right expression and the product of the left expression and the derivative of the right expression
-        return new Add(new Multiply(left.differentiate(var), right), new Multiply(left, right.differentiate(var)));
+        // Differentiate each distinct subtree once, sharing its derivative
+        return Differentiator.differentiate(this, var);
+    }
+
+    @Override
+    public double evaluate(Map<String, Double> environment) {
+        // Evaluate on an explicit stack, at any depth
+        return Traversal.evaluate(this, environment);
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        // Simplify each distinct subtree once, on an explicit stack, at any depth
+        return Traversal.simplify(this, environment);
+    }
+
+    /**
+     * @param simplifiedOperands the operands of this product, each simplified, in order
+     * @return this product simplified, as defined by Expression.simplify(), given its
+     *         simplified operands
+     */
+    Expression simplify(Expression[] simplifiedOperands) {
+        // Fold the numbers among the simplified operands into one coefficient, placed first
+        List<Expression> factors = new ArrayList<>(operands.length + 1);
+        factors.add(null);
+        double coefficient = 1;
+        boolean changed = false;
+        int constants = 0;
+        for (int i = 0; i < operands.length; i++) {
+            Expression simplified = simplifiedOperands[i];
+            changed |= simplified != operands[i];
+            if (simplified instanceof Number) {
+                coefficient *= ((Number) simplified).value();
+                // already folded only if it is the one number, in its place
+                changed |= ++constants > 1 || i != 0;
+            } else {
+                factors.add(simplified);
+            }
+        }
+        if (!changed && (constants == 0 || (coefficient != 0 && coefficient != 1))) {
+            return this;
+        }
+        if (coefficient == 0) {
+            return ExpressionFactory.number(0);
+        }
+        if (coefficient != 1 || factors.size() == 1) {
+            factors.set(0, ExpressionFactory.constant(coefficient));
+        } else {
+            factors.remove(0);
+        }
+        if (factors.size() == 1) {
+            return factors.get(0);
+        }
+        return ExpressionFactory.multiply(factors.toArray(new Expression[factors.size()]));
     }
     
 }
@@ -1,16 +1,21 @@
 package expressivo;
 
+import java.math.BigDecimal;
+import java.util.Map;
+
 /*
  * An immutable data type representing an expression
  * that contains only a number as a double.
  */
 public class Number implements Expression {
     private final double number;
+    private final long fingerprint;
     
     // Abstraction function
     //   represents the number this.number
     // Representation invariant
-    //   number is finite, and non-negative
+    //   number is finite, and non-negative, and not -0.0
+    //   fingerprint == Fingerprints.number(number)
     // Safety from rep exposure
     //   all fields are private and final
     
@@ -19,7 +24,9 @@ public class Number implements Expression {
      * @param number the number to represent
      */
     public Number(double number) {
-        this.number = number;
+        // adding 0.0 turns -0.0 into 0.0, and leaves every other number unchanged
+        this.number = number + 0.0;
+        this.fingerprint = Fingerprints.number(this.number);
         checkRep();
     }
 
@@ -34,25 +41,74 @@ public class Number implements Expression {
 
     @Override 
     public String toString() {
-        return Double.toString(number);
+        return format(number);
+    }
+
+    /**
+     * @param value a finite, non-negative number
+     * @return value in plain decimal, with at least one digit after the point, as the
+     *         grammar reads it: Double.toString(value) when that has no exponent,
+     *         e.g. 2.5 or 1.0, and otherwise the same digits written out, e.g.
+     *         100000000.0 rather than 1.0E8 and 0.0001 rather than 1.0E-4
+     */
+    static String format(double value) {
+        String text = Double.toString(value);
+        if (text.indexOf('E') < 0) {
+            return text;
+        }
+        String plain = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        return plain.indexOf('.') < 0 ? plain + ".0" : plain;
     }
     
     @Override 
     public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
         if (!(thatObject instanceof Number)) return false;
         Number that = (Number) thatObject;
-        final double epsilon = 1e-10;
-        return Math.abs(this.number - that.number) < epsilon;
+        // exact, to be consistent with hashCode()
+        return this.number == that.number;
     }
     
     @Override 
     public int hashCode() {
         return Double.hashCode(number);
     }
+    
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+    
+    @Override
+    public long size() {
+        return 1;
+    }
+    
+    @Override
+    public int depth() {
+        return 1;
+    }
 
     @Override
     public Expression differentiate(String var) {
         // The derivative of a constant is zero
-        return new Number(0);
+        return ExpressionFactory.number(0);
+    }
+
+    @Override
+    public double evaluate(Map<String, Double> environment) {
+        return number;
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        return this;
+    }
+    
+    /**
+     * @return the number this expression represents
+     */
+    double value() {
+        return number;
     }
 }
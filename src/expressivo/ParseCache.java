@@ -0,0 +1,267 @@
+package expressivo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe, bounded memoizing layer over Expression.parse().
+ *
+ * <p>Entries are keyed by input string. Since Expression is immutable, the
+ * cached ASTs are shared between all callers. Invalid inputs are not cached.
+ *
+ * <p>The cache is split into independently locked segments, selected by the
+ * hash of the input. Each segment uses a segmented-LRU eviction policy: a new
+ * entry starts in a probationary region, and is promoted to a protected region
+ * on its second use, so that entries used often survive a burst of inputs that
+ * are each used only once. Victims are taken from the least recently used end
+ * of the probationary region, then of the protected region.
+ */
+public class ParseCache {
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final int concurrencyLevel;
+    private volatile Segment[] segments;
+    private volatile int maximumSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Abstraction function
+    //   represents a cache of the ASTs of up to maximumSize inputs, where the
+    //   input s is cached iff it is a key of segmentFor(segments, s), and
+    //   hits, misses and evictions count the cache events since construction
+    // Representation invariant
+    //   concurrencyLevel >= 1, maximumSize >= 0
+    //   segments.length == min(concurrencyLevel, max(1, maximumSize)), so that
+    //     every segment has a capacity of at least 1 unless maximumSize is 0
+    //   the capacities of the segments sum to maximumSize
+    //   every cached value equals Expression.parse(key)
+    // Safety from rep exposure
+    //   all fields are private; segments are never returned
+    // Thread safety argument
+    //   each segment is guarded by its own lock; segments and maximumSize are
+    //   volatile, and are only replaced while holding this object's lock, which
+    //   clear() also takes; the counters are LongAdders; parsing happens outside
+    //   any lock. A parse() that raced with a resize may put its entry into a
+    //   replaced segment, where it is simply never found again
+
+    /**
+     * Make a ParseCache.
+     * @param maximumSize maximum number of cached expressions, >= 0
+     */
+    public ParseCache(int maximumSize) {
+        this(maximumSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Make a ParseCache.
+     * @param maximumSize maximum number of cached expressions, >= 0
+     * @param concurrencyLevel number of independently locked segments, >= 1;
+     *        entries are spread over the segments by hash, so a segment may evict
+     *        before the cache as a whole is full. A cache with a maximumSize less
+     *        than concurrencyLevel uses only maximumSize segments, so that each can
+     *        hold at least one entry.
+     */
+    public ParseCache(int maximumSize, int concurrencyLevel) {
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        this.concurrencyLevel = concurrencyLevel;
+        setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Parse an expression, reusing the AST of an earlier parse of the same input.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input, equal to Expression.parse(input)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public Expression parse(String input) {
+        if (input == null) {
+            return Expression.parse(input);
+        }
+        Segment segment = segmentFor(segments, input);
+        Expression cached = segment.get(input);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        Expression parsed = Expression.parse(input);
+        evictions.add(segment.put(input, parsed));
+        return parsed;
+    }
+
+    /**
+     * Change the bound of this cache, evicting entries if it shrinks.
+     * @param maximumSize maximum number of cached expressions, >= 0
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must be nonnegative: " + maximumSize);
+        }
+        final Segment[] current = segments;
+        final int count = Math.min(concurrencyLevel, Math.max(1, maximumSize));
+        final Segment[] resized = current != null && current.length == count ? current : new Segment[count];
+        final int share = maximumSize / count;
+        final int remainder = maximumSize % count;
+        for (int i = 0; i < count; i++) {
+            if (resized[i] == null) {
+                resized[i] = new Segment();
+            }
+            evictions.add(resized[i].setCapacity(share + (i < remainder ? 1 : 0)));
+        }
+        this.maximumSize = maximumSize;
+        if (resized != current) {
+            segments = resized;
+            if (current != null) {
+                // the number of segments changed, so entries hash to other segments now
+                for (Segment segment : current) {
+                    for (Map.Entry<String, Expression> entry : segment.drain().entrySet()) {
+                        evictions.add(segmentFor(resized, entry.getKey()).put(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of cached expressions
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of cached expressions
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove all entries. Removed entries are not counted as evictions.
+     */
+    public synchronized void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return number of calls to parse() answered from the cache
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of calls to parse() that had to parse their input
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries removed to respect the maximum size
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ParseCache[size=" + size() + "/" + maximumSize + ", hits=" + hitCount()
+                + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+
+    private static Segment segmentFor(Segment[] segments, String input) {
+        int hash = input.hashCode();
+        hash ^= hash >>> 16;
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /*
+     * One independently locked part of the cache, holding a segmented LRU.
+     * Both regions are access-ordered, so iteration starts at the least recently used entry.
+     */
+    private static class Segment {
+        private static final int PROTECTED_PERCENT = 80;
+
+        private final Map<String, Expression> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, Expression> protect = new LinkedHashMap<>(16, 0.75f, true);
+        private int capacity;
+
+        synchronized Expression get(String input) {
+            Expression expression = probation.remove(input);
+            if (expression != null) {
+                // second use: promote, demoting the protected region's LRU entry if it is full
+                protect.put(input, expression);
+                if (protect.size() > protectedCapacity()) {
+                    Iterator<Map.Entry<String, Expression>> eldest = protect.entrySet().iterator();
+                    Map.Entry<String, Expression> demoted = eldest.next();
+                    eldest.remove();
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+                return expression;
+            }
+            return protect.get(input);
+        }
+
+        /* Returns the number of evicted entries. */
+        synchronized int put(String input, Expression expression) {
+            if (capacity == 0 || protect.containsKey(input)) {
+                return 0;
+            }
+            probation.put(input, expression);
+            return evictToCapacity();
+        }
+
+        /* Returns the number of evicted entries. */
+        synchronized int setCapacity(int capacity) {
+            this.capacity = capacity;
+            return evictToCapacity();
+        }
+
+        synchronized int size() {
+            return probation.size() + protect.size();
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protect.clear();
+        }
+
+        /* Removes and returns all entries, least valuable first: probationary, then protected. */
+        synchronized Map<String, Expression> drain() {
+            Map<String, Expression> entries = new LinkedHashMap<>(probation);
+            entries.putAll(protect);
+            clear();
+            return entries;
+        }
+
+        // leaves at least one entry for the probationary region, so that new entries can be cached
+        private int protectedCapacity() {
+            return Math.max(0, Math.min(capacity - 1, (int) ((long) capacity * PROTECTED_PERCENT / 100)));
+        }
+
+        private int evictToCapacity() {
+            int evicted = 0;
+            while (size() > capacity) {
+                Map<String, Expression> victims = probation.isEmpty() ? protect : probation;
+                Iterator<String> eldest = victims.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An immutable sparse multivariate polynomial with nonnegative coefficients,
+ * the canonical form of an expression.
+ *
+ * <p>Every expression is a polynomial in its variables. A Polynomial is the
+ * expansion of one: a sum of distinct monomials, each a coefficient times a
+ * product of powers of variables. The exponents of a monomial are packed four
+ * to a long, sixteen bits each, in an array of words over a sorted table of
+ * the variables, so that multiplying monomials is adding words. Arithmetic
+ * collects terms in an open-addressing hash table keyed by the packed exponents.
+ *
+ * <p>Two expressions are equal as polynomials, that is, equal in value for
+ * all values of their variables, if and only if their Polynomials are equal;
+ * toExpression() gives the same canonical expression for both. Differentiating
+ * or evaluating a polynomial takes time proportional to its number of terms,
+ * however large the tree it came from. Note that expanding a product of sums
+ * may make many terms: (x + y)^n has n + 1.
+ */
+public final class Polynomial {
+
+    /** Largest exponent of a variable in a monomial. */
+    static final int MAX_EXPONENT = 0x7FFF;
+
+    private static final int BITS = 16;
+    private static final int PER_WORD = 4;
+    private static final long FIELD = 0xFFFFL;
+    // high bit of every field; set after adding two words only if an exponent exceeded MAX_EXPONENT
+    private static final long OVERFLOW = 0x8000_8000_8000_8000L;
+
+    private static final Polynomial ZERO = new Polynomial(new String[0], new long[0], new double[0]);
+
+    private final String[] variables;
+    private final int words;
+    private final long[] keys;
+    private final double[] coefficients;
+
+    // Abstraction function
+    //   represents the sum over terms t = 0..coefficients.length-1 of
+    //     coefficients[t] * product over v of variables[v] ^ exponent(t, v)
+    //   where exponent(t, v) is bits 16*(v%4) .. 16*(v%4)+15 of keys[t*words + v/4]
+    // Representation invariant
+    //   variables are sorted and distinct, and each has a nonzero exponent in some term
+    //   words == max(1, ceil(variables.length / 4)); keys.length == coefficients.length * words
+    //   all exponents are <= MAX_EXPONENT, and fields beyond variables.length are zero
+    //   the exponent vectors of the terms are distinct, and the terms are in canonical order:
+    //     by total degree, highest first, then by exponent of variables[0], highest first,
+    //     then of variables[1], and so on
+    //   coefficients are positive and finite
+    // Safety from rep exposure
+    //   all fields are private and final, the arrays are never returned, and
+    //   variables() is an unmodifiable view
+
+    private Polynomial(String[] variables, long[] keys, double[] coefficients) {
+        this.variables = variables;
+        this.words = wordsFor(variables.length);
+        this.keys = keys;
+        this.coefficients = coefficients;
+    }
+
+    /**
+     * @param expression an expression
+     * @return the expansion of expression; subexpressions that are the same object are
+     *         expanded once
+     * @throws IllegalArgumentException if a variable has an exponent greater than 32767
+     *         in the expansion, or a coefficient is too large to represent
+     */
+    public static Polynomial of(Expression expression) {
+        String[] variables = new TreeSet<>(Variables.slots(expression).keySet()).toArray(new String[0]);
+        Map<String, Integer> index = new HashMap<>();
+        for (int v = 0; v < variables.length; v++) {
+            index.put(variables[v], v);
+        }
+        Expander expander = new Expander(variables, index);
+        return expander.expand(expression).build(variables);
+    }
+
+    /**
+     * @return the variables of this polynomial, in sorted order
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * @return number of terms of this polynomial, 0 for the zero polynomial
+     */
+    public int terms() {
+        return coefficients.length;
+    }
+
+    /**
+     * @param that a polynomial
+     * @return the sum of this and that
+     * @throws IllegalArgumentException if a coefficient is too large to represent
+     */
+    public Polynomial add(Polynomial that) {
+        String[] union = union(this.variables, that.variables);
+        Terms sum = this.aligned(union);
+        sum.addAll(that.aligned(union));
+        return sum.build(union);
+    }
+
+    /**
+     * @param that a polynomial
+     * @return the product of this and that
+     * @throws IllegalArgumentException if a variable has an exponent greater than 32767
+     *         in the product, or a coefficient is too large to represent
+     */
+    public Polynomial multiply(Polynomial that) {
+        String[] union = union(this.variables, that.variables);
+        return this.aligned(union).times(that.aligned(union)).build(union);
+    }
+
+    /**
+     * @param var a variable
+     * @return the derivative of this polynomial with respect to var
+     * @throws IllegalArgumentException if a coefficient is too large to represent
+     */
+    public Polynomial differentiate(String var) {
+        int v = Arrays.binarySearch(variables, var);
+        if (v < 0) {
+            return ZERO;
+        }
+        int word = v / PER_WORD;
+        int shift = BITS * (v % PER_WORD);
+        Terms derivative = new Terms(words, terms());
+        long[] key = new long[words];
+        for (int t = 0; t < coefficients.length; t++) {
+            long exponent = (keys[t * words + word] >>> shift) & FIELD;
+            if (exponent > 0) {
+                System.arraycopy(keys, t * words, key, 0, words);
+                key[word] -= 1L << shift;
+                derivative.add(key, 0, coefficients[t] * exponent);
+            }
+        }
+        return derivative.build(variables);
+    }
+
+    /**
+     * @param environment maps variables to their values
+     * @return the value of this polynomial
+     * @throws IllegalArgumentException if a variable of this polynomial has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[variables.length];
+        for (int v = 0; v < values.length; v++) {
+            Double value = environment.get(variables[v]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable: " + variables[v]);
+            }
+            values[v] = value;
+        }
+        double sum = 0;
+        for (int t = 0; t < coefficients.length; t++) {
+            double term = coefficients[t];
+            for (int v = 0; v < values.length; v++) {
+                for (long e = exponent(t, v); e > 0; e--) {
+                    term *= values[v];
+                }
+            }
+            sum += term;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the canonical expression of this polynomial, made through ExpressionFactory:
+     *         a sum of its terms in canonical order, highest total degree first, each term the
+     *         product of its coefficient, omitted if it is 1, and of its variables in sorted
+     *         order, each repeated as many times as its exponent; a sum or product of one
+     *         operand is that operand, and the zero polynomial is the number 0
+     */
+    public Expression toExpression() {
+        if (coefficients.length == 0) {
+            return ExpressionFactory.number(0);
+        }
+        Expression[] terms = new Expression[coefficients.length];
+        for (int t = 0; t < terms.length; t++) {
+            List<Expression> factors = new ArrayList<>();
+            if (coefficients[t] != 1) {
+                factors.add(ExpressionFactory.number(coefficients[t]));
+            }
+            for (int v = 0; v < variables.length; v++) {
+                Expression variable = ExpressionFactory.variable(variables[v]);
+                for (long e = exponent(t, v); e > 0; e--) {
+                    factors.add(variable);
+                }
+            }
+            if (factors.isEmpty()) {
+                terms[t] = ExpressionFactory.number(1);
+            } else if (factors.size() == 1) {
+                terms[t] = factors.get(0);
+            } else {
+                terms[t] = ExpressionFactory.multiply(factors.toArray(new Expression[factors.size()]));
+            }
+        }
+        return terms.length == 1 ? terms[0] : ExpressionFactory.add(terms);
+    }
+
+    /**
+     * @return the string of toExpression()
+     */
+    @Override
+    public String toString() {
+        return toExpression().toString();
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a Polynomial with the same terms
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
+        if (!(thatObject instanceof Polynomial)) return false;
+        Polynomial that = (Polynomial) thatObject;
+        // the terms are in canonical order
+        return Arrays.equals(this.variables, that.variables)
+                && Arrays.equals(this.keys, that.keys)
+                && Arrays.equals(this.coefficients, that.coefficients);
+    }
+
+    @Override
+    public int hashCode() {
+        return (Arrays.hashCode(variables) * 31 + Arrays.hashCode(keys)) * 31 + Arrays.hashCode(coefficients);
+    }
+
+    private long exponent(int t, int v) {
+        return (keys[t * words + v / PER_WORD] >>> (BITS * (v % PER_WORD))) & FIELD;
+    }
+
+    // The terms of this polynomial over the variables union, a superset of variables
+    private Terms aligned(String[] union) {
+        Terms terms = new Terms(wordsFor(union.length), terms());
+        long[] key = new long[terms.words];
+        for (int t = 0; t < coefficients.length; t++) {
+            Arrays.fill(key, 0);
+            int u = 0;
+            for (int v = 0; v < variables.length; v++) {
+                while (!union[u].equals(variables[v])) {
+                    u++;
+                }
+                key[u / PER_WORD] |= exponent(t, v) << (BITS * (u % PER_WORD));
+            }
+            terms.add(key, 0, coefficients[t]);
+        }
+        return terms;
+    }
+
+    private static String[] union(String[] a, String[] b) {
+        TreeSet<String> union = new TreeSet<>(Arrays.asList(a));
+        union.addAll(Arrays.asList(b));
+        return union.toArray(new String[union.size()]);
+    }
+
+    private static int wordsFor(int variables) {
+        return Math.max(1, (variables + PER_WORD - 1) / PER_WORD);
+    }
+
+    /*
+     * Expands an expression over a fixed table of variables, expanding each
+     * distinct object once.
+     */
+    private static class Expander {
+        private final String[] variables;
+        private final Map<String, Integer> index;
+        private final int words;
+        private final Map<Expression, Terms> expanded = new IdentityHashMap<>();
+
+        Expander(String[] variables, Map<String, Integer> index) {
+            this.variables = variables;
+            this.index = index;
+            this.words = wordsFor(variables.length);
+        }
+
+        // Expand each distinct node of expression once, operands before the nodes that use them
+        Terms expand(Expression expression) {
+            for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+                Expression node = nodes.next();
+                Terms terms;
+                if (node instanceof Number) {
+                    terms = new Terms(words, 1);
+                    terms.add(new long[words], 0, ((Number) node).value());
+                } else if (node instanceof Variable) {
+                    int v = index.get(((Variable) node).name());
+                    long[] key = new long[words];
+                    key[v / PER_WORD] = 1L << (BITS * (v % PER_WORD));
+                    terms = new Terms(words, 1);
+                    terms.add(key, 0, 1);
+                } else if (node instanceof Add) {
+                    Add add = (Add) node;
+                    terms = new Terms(words, 4);
+                    for (int i = 0; i < add.arity(); i++) {
+                        terms.addAll(expanded.get(add.operand(i)));
+                    }
+                } else if (node instanceof Multiply) {
+                    Multiply multiply = (Multiply) node;
+                    terms = expanded.get(multiply.operand(0));
+                    for (int i = 1; i < multiply.arity(); i++) {
+                        terms = terms.times(expanded.get(multiply.operand(i)));
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unknown expression: " + node);
+                }
+                expanded.put(node, terms);
+            }
+            return expanded.get(expression);
+        }
+    }
+
+    /*
+     * A mutable collection of terms, as an open-addressing hash table with linear
+     * probing from packed exponent vectors to coefficients.
+     */
+    private static class Terms {
+        final int words;
+        long[] keys;
+        double[] coefficients;
+        boolean[] used;
+        int size;
+
+        // Abstraction function
+        //   represents the sum of coefficients[s] * monomial(keys[s*words..(s+1)*words))
+        //   over slots s with used[s]
+        // Representation invariant
+        //   capacity (used.length) is a power of two, and more than twice size
+        //   the keys of used slots are distinct, and each is in the probe sequence
+        //   starting at the slot of its hash, with no unused slot before it
+
+        Terms(int words, int expected) {
+            this.words = words;
+            int capacity = Integer.highestOneBit(Math.max(4, 2 * expected)) << 1;
+            this.keys = new long[capacity * words];
+            this.coefficients = new double[capacity];
+            this.used = new boolean[capacity];
+        }
+
+        // Add coefficient times the monomial key[offset..offset+words)
+        void add(long[] key, int offset, double coefficient) {
+            if (coefficient == 0) {
+                return;
+            }
+            if (Double.isInfinite(coefficient)) {
+                throw new IllegalArgumentException("Coefficient too large");
+            }
+            if (2 * (size + 1) >= used.length) {
+                grow();
+            }
+            int mask = used.length - 1;
+            for (int s = hash(key, offset) & mask; ; s = (s + 1) & mask) {
+                if (!used[s]) {
+                    used[s] = true;
+                    System.arraycopy(key, offset, keys, s * words, words);
+                    coefficients[s] = coefficient;
+                    size++;
+                    return;
+                }
+                if (sameKey(s, key, offset)) {
+                    coefficients[s] += coefficient;
+                    if (Double.isInfinite(coefficients[s])) {
+                        throw new IllegalArgumentException("Coefficient too large");
+                    }
+                    return;
+                }
+            }
+        }
+
+        void addAll(Terms that) {
+            for (int s = 0; s < that.used.length; s++) {
+                if (that.used[s]) {
+                    add(that.keys, s * words, that.coefficients[s]);
+                }
+            }
+        }
+
+        // The product of this and that, by distributing
+        Terms times(Terms that) {
+            Terms product = new Terms(words, this.size * that.size);
+            long[] key = new long[words];
+            for (int s = 0; s < this.used.length; s++) {
+                if (!this.used[s]) continue;
+                for (int r = 0; r < that.used.length; r++) {
+                    if (!that.used[r]) continue;
+                    for (int w = 0; w < words; w++) {
+                        key[w] = this.keys[s * words + w] + that.keys[r * words + w];
+                        if ((key[w] & OVERFLOW) != 0) {
+                            throw new IllegalArgumentException("Exponent greater than " + MAX_EXPONENT);
+                        }
+                    }
+                    product.add(key, 0, this.coefficients[s] * that.coefficients[r]);
+                }
+            }
+            return product;
+        }
+
+        // The polynomial of these terms over variables, dropping the variables no term uses
+        Polynomial build(String[] variables) {
+            if (size == 0) {
+                return ZERO;
+            }
+            boolean[] usedVariables = new boolean[variables.length];
+            for (int s = 0; s < used.length; s++) {
+                if (!used[s]) continue;
+                for (int v = 0; v < variables.length; v++) {
+                    usedVariables[v] |= field(keys, s * words, v) != 0;
+                }
+            }
+            List<String> kept = new ArrayList<>();
+            for (int v = 0; v < variables.length; v++) {
+                if (usedVariables[v]) {
+                    kept.add(variables[v]);
+                }
+            }
+            final int keptWords = wordsFor(kept.size());
+            final long[] packed = new long[size * keptWords];
+            final double[] values = new double[size];
+            int t = 0;
+            for (int s = 0; s < used.length; s++) {
+                if (!used[s]) continue;
+                for (int v = 0, u = 0; v < variables.length; v++) {
+                    if (usedVariables[v]) {
+                        packed[t * keptWords + u / PER_WORD] |= field(keys, s * words, v) << (BITS * (u % PER_WORD));
+                        u++;
+                    }
+                }
+                values[t++] = coefficients[s];
+            }
+            final int variableCount = kept.size();
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compareMonomials(packed, a * keptWords, b * keptWords, variableCount));
+            long[] sortedKeys = new long[packed.length];
+            double[] sortedCoefficients = new double[size];
+            for (int i = 0; i < order.length; i++) {
+                System.arraycopy(packed, order[i] * keptWords, sortedKeys, i * keptWords, keptWords);
+                sortedCoefficients[i] = values[order[i]];
+            }
+            return new Polynomial(kept.toArray(new String[variableCount]), sortedKeys, sortedCoefficients);
+        }
+
+        private boolean sameKey(int s, long[] key, int offset) {
+            for (int w = 0; w < words; w++) {
+                if (keys[s * words + w] != key[offset + w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldCoefficients = coefficients;
+            boolean[] oldUsed = used;
+            keys = new long[2 * oldKeys.length];
+            coefficients = new double[2 * oldCoefficients.length];
+            used = new boolean[2 * oldUsed.length];
+            size = 0;
+            for (int s = 0; s < oldUsed.length; s++) {
+                if (oldUsed[s]) {
+                    add(oldKeys, s * words, oldCoefficients[s]);
+                }
+            }
+        }
+
+        private int hash(long[] key, int offset) {
+            long h = 0;
+            for (int w = 0; w < words; w++) {
+                h = (h + key[offset + w]) * 0x9E37_79B9_7F4A_7C15L;
+            }
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static long field(long[] keys, int offset, int v) {
+        return (keys[offset + v / PER_WORD] >>> (BITS * (v % PER_WORD))) & FIELD;
+    }
+
+    // Canonical order: higher total degree first, then higher exponents of earlier variables first
+    private static int compareMonomials(long[] keys, int a, int b, int variables) {
+        long degreeA = 0;
+        long degreeB = 0;
+        for (int v = 0; v < variables; v++) {
+            degreeA += field(keys, a, v);
+            degreeB += field(keys, b, v);
+        }
+        if (degreeA != degreeB) {
+            return Long.compare(degreeB, degreeA);
+        }
+        for (int v = 0; v < variables; v++) {
+            long difference = field(keys, a, v) - field(keys, b, v);
+            if (difference != 0) {
+                return difference > 0 ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,487 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable expression encoded as a flat postfix program for a stack machine.
+ *
+ * <p>A program is an int[] of instructions, each a pair of an opcode and an
+ * operand, a double[] pool of its distinct constants, and a table of its
+ * distinct variables. Operands are listed before the operator that combines
+ * them, so a program is evaluated in one forward pass with a stack of doubles.
+ * Instead of an object with a header and a reference per node, each node takes
+ * two ints, and the nodes of an expression are contiguous in memory.
+ *
+ * <p>A program converts to and from an Expression without loss:
+ *     Program.of(e).toExpression().equals(e)
+ * and it can be evaluated, differentiated and printed without converting it.
+ */
+public final class Program {
+
+    /** Push constants[operand]. */
+    static final int CONSTANT = 0;
+    /** Push the value of variables[operand]. */
+    static final int VARIABLE = 1;
+    /** Pop operand values and push their sum. */
+    static final int ADD = 2;
+    /** Pop operand values and push their product. */
+    static final int MULTIPLY = 3;
+
+    private final int[] code;
+    private final double[] constants;
+    private final String[] variables;
+    private final int maxStack;
+
+    // Abstraction function
+    //   represents the expression whose postfix traversal is the instructions
+    //   (code[2k], code[2k+1]) for k = 0..code.length/2-1, where (CONSTANT, i) is the
+    //   number constants[i], (VARIABLE, i) is the variable variables[i], and (ADD, n)
+    //   and (MULTIPLY, n) are the sum and product of the n preceding subexpressions
+    // Representation invariant
+    //   code is nonempty and of even length, and describes exactly one expression
+    //   every ADD and MULTIPLY has operand >= 2
+    //   constants are distinct, nonnegative, finite and not -0.0, numbered in order
+    //     of first appearance in code; likewise variables are distinct and nonempty
+    //   maxStack is the largest stack depth reached while evaluating code
+    // Safety from rep exposure
+    //   all fields are private and final, and the arrays are never returned;
+    //   Builder.build() copies the arrays it passes in
+
+    private Program(int[] code, double[] constants, String[] variables, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.variables = variables;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * @param expression an expression
+     * @return the program of expression
+     */
+    public static Program of(Expression expression) {
+        Builder builder = new Builder();
+        builder.append(expression);
+        return builder.build();
+    }
+
+    /**
+     * @return the expression this program represents, made through ExpressionFactory
+     *         without simplification
+     */
+    public Expression toExpression() {
+        Expression[] stack = new Expression[maxStack];
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc += 2) {
+            int operand = code[pc + 1];
+            switch (code[pc]) {
+            case CONSTANT:
+                stack[top++] = ExpressionFactory.number(constants[operand]);
+                break;
+            case VARIABLE:
+                stack[top++] = ExpressionFactory.variable(variables[operand]);
+                break;
+            case ADD:
+                top -= operand;
+                stack[top] = ExpressionFactory.add(Arrays.copyOfRange(stack, top, top + operand));
+                top++;
+                break;
+            default:
+                top -= operand;
+                stack[top] = ExpressionFactory.multiply(Arrays.copyOfRange(stack, top, top + operand));
+                top++;
+                break;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * @return number of instructions, which is the number of nodes in the expression
+     */
+    public int length() {
+        return code.length / 2;
+    }
+
+    /**
+     * @return the distinct variables of the program, in order of first appearance,
+     *         which is the order of their values given to evaluate(double[])
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * Evaluate the program.
+     * @param values values[i] is the value of variables().get(i); may be longer
+     * @return the value of the expression, equal to toExpression().evaluate() at values
+     * @throws ArrayIndexOutOfBoundsException if values is shorter than variables()
+     */
+    public double evaluate(double[] values) {
+        double[] stack = new double[maxStack];
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc += 2) {
+            int operand = code[pc + 1];
+            switch (code[pc]) {
+            case CONSTANT:
+                stack[top++] = constants[operand];
+                break;
+            case VARIABLE:
+                stack[top++] = values[operand];
+                break;
+            case ADD: {
+                top -= operand;
+                double sum = stack[top];
+                for (int i = 1; i < operand; i++) {
+                    sum += stack[top + i];
+                }
+                stack[top++] = sum;
+                break;
+            }
+            default: {
+                top -= operand;
+                double product = stack[top];
+                for (int i = 1; i < operand; i++) {
+                    product *= stack[top + i];
+                }
+                stack[top++] = product;
+                break;
+            }
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluate the program.
+     * @param environment maps variables to their values
+     * @return the value of the expression, equal to toExpression().evaluate(environment)
+     * @throws IllegalArgumentException if a variable of the program has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[variables.length];
+        for (int i = 0; i < values.length; i++) {
+            Double value = environment.get(variables[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable: " + variables[i]);
+            }
+            values[i] = value;
+        }
+        return evaluate(values);
+    }
+
+    /**
+     * Differentiate the program.
+     * @param var the variable with respect to which the program is to be differentiated
+     * @return the program of the derivative of toExpression() by the sum and product rules,
+     *         as defined by Expression.differentiate() but without simplification; equal in
+     *         value to toExpression().differentiate(var)
+     */
+    public Program differentiate(String var) {
+        int[] starts = starts();
+        Builder builder = new Builder();
+        differentiate(length() - 1, starts, var, builder);
+        return builder.build();
+    }
+
+    // Append to builder the derivative of the subexpression ending at instruction k
+    private void differentiate(int k, int[] starts, String var, Builder builder) {
+        // for a product of n operands, step s = i * (n + 1) + j, for j < n, appends
+        // operand j of the i-th product, its derivative if j == i, and j == n ends that product
+        Walk walk = new Walk(k);
+        while (walk.top > 0) {
+            int node = walk.node();
+            int operand = code[2 * node + 1];
+            int opcode = code[2 * node];
+            if (opcode == CONSTANT) {
+                builder.constant(0);
+                walk.pop();
+            } else if (opcode == VARIABLE) {
+                builder.constant(variables[operand].equals(var) ? 1 : 0);
+                walk.pop();
+            } else if (opcode == ADD) {
+                // The derivative of a sum is the sum of the derivatives
+                int step = walk.step();
+                if (step == operand) {
+                    builder.operator(ADD, operand);
+                    walk.pop();
+                } else {
+                    walk.push(children(node, starts, walk)[step]);
+                }
+            } else {
+                // The derivative of a product is the sum, over each operand, of the product
+                // with that operand replaced by its derivative
+                int[] children = children(node, starts, walk);
+                int step = walk.step();
+                while (step < operand * (operand + 1)) {
+                    int i = step / (operand + 1);
+                    int j = step % (operand + 1);
+                    if (j == operand) {
+                        builder.operator(MULTIPLY, operand);
+                    } else if (j == i) {
+                        break;
+                    } else {
+                        copy(starts[children[j]], children[j], builder);
+                    }
+                    step = walk.step();
+                }
+                if (step < operand * (operand + 1)) {
+                    walk.push(children[step % (operand + 1)]);
+                } else {
+                    builder.operator(ADD, operand);
+                    walk.pop();
+                }
+            }
+        }
+    }
+
+    // Append to builder instructions first..last of this program
+    private void copy(int first, int last, Builder builder) {
+        for (int k = first; k <= last; k++) {
+            int operand = code[2 * k + 1];
+            switch (code[2 * k]) {
+            case CONSTANT:
+                builder.constant(constants[operand]);
+                break;
+            case VARIABLE:
+                builder.variable(variables[operand]);
+                break;
+            default:
+                builder.operator(code[2 * k], operand);
+                break;
+            }
+        }
+    }
+
+    /*
+     * Return starts such that the subexpression ending at instruction k begins at
+     * instruction starts[k].
+     */
+    private int[] starts() {
+        int[] starts = new int[length()];
+        int[] stack = new int[maxStack];
+        int top = 0;
+        for (int k = 0; k < starts.length; k++) {
+            int opcode = code[2 * k];
+            if (opcode == ADD || opcode == MULTIPLY) {
+                top -= code[2 * k + 1];
+                starts[k] = stack[top];
+            } else {
+                starts[k] = k;
+            }
+            stack[top++] = starts[k];
+        }
+        return starts;
+    }
+
+    // The last instructions of the operands of the operator at instruction k, in order,
+    // computed once for the top frame of walk
+    private int[] children(int k, int[] starts, Walk walk) {
+        int[] children = walk.children[walk.top - 1];
+        if (children == null) {
+            children = new int[code[2 * k + 1]];
+            int end = k - 1;
+            for (int i = children.length - 1; i >= 0; i--) {
+                children[i] = end;
+                end = starts[end] - 1;
+            }
+            walk.children[walk.top - 1] = children;
+        }
+        return children;
+    }
+
+    /**
+     * @return the same string as toExpression().toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        print(length() - 1, starts(), out);
+        return out.toString();
+    }
+
+    // Append the subexpression ending at instruction k
+    private void print(int k, int[] starts, StringBuilder out) {
+        Walk walk = new Walk(k);
+        while (walk.top > 0) {
+            int node = walk.node();
+            int operand = code[2 * node + 1];
+            switch (code[2 * node]) {
+            case CONSTANT:
+                out.append(Number.format(constants[operand]));
+                walk.pop();
+                break;
+            case VARIABLE:
+                out.append(variables[operand]);
+                walk.pop();
+                break;
+            default: {
+                int step = walk.step();
+                if (step == operand) {
+                    out.append(')');
+                    walk.pop();
+                } else {
+                    out.append(step == 0 ? "(" : code[2 * node] == ADD ? " + " : " * ");
+                    walk.push(children(node, starts, walk)[step]);
+                }
+                break;
+            }
+            }
+        }
+    }
+
+    /*
+     * The subexpressions being visited, outermost first, kept on an explicit stack so that
+     * programs of any depth can be walked.
+     */
+    private static final class Walk {
+        int[] nodes = new int[16];
+        int[] steps = new int[16];
+        int[][] children = new int[16][];
+        int top = 0;
+
+        // Abstraction function
+        //   represents a visit to the subexpression ending at instruction nodes[i], which has
+        //   taken steps[i] steps, for each i < top; children[i] is null or the last
+        //   instructions of the operands of nodes[i]
+        // Representation invariant
+        //   nodes[i + 1] is an operand of nodes[i]; children[top..] are null
+        // Safety from rep exposure
+        //   the class is private to Program, and never escapes a method
+
+        Walk(int k) {
+            push(k);
+        }
+
+        int node() {
+            return nodes[top - 1];
+        }
+
+        // Return the number of steps the top frame has taken, and count one more
+        int step() {
+            return steps[top - 1]++;
+        }
+
+        // Start visiting the subexpression ending at instruction k
+        void push(int k) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                steps = Arrays.copyOf(steps, 2 * top);
+                children = Arrays.copyOf(children, 2 * top);
+            }
+            nodes[top] = k;
+            steps[top] = 0;
+            top++;
+        }
+
+        void pop() {
+            children[--top] = null;
+        }
+    }
+
+    /**
+     * @param thatObject any object
+     * @return true if and only if thatObject is a Program of an equal expression
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
+        if (!(thatObject instanceof Program)) return false;
+        Program that = (Program) thatObject;
+        // constants and variables are numbered in order of first appearance,
+        // so programs of equal expressions are equal arrays
+        return Arrays.equals(this.code, that.code)
+                && Arrays.equals(this.constants, that.constants)
+                && Arrays.equals(this.variables, that.variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return (Arrays.hashCode(code) * 31 + Arrays.hashCode(constants)) * 31 + Arrays.hashCode(variables);
+    }
+
+    /*
+     * Appends instructions in postfix order, numbering constants and variables
+     * in order of first appearance.
+     */
+    static class Builder {
+        private int[] code = new int[16];
+        private int length = 0;
+        private double[] constants = new double[4];
+        private int constantCount = 0;
+        private final Map<Long, Integer> constantIndex = new HashMap<>();
+        private String[] variables = new String[4];
+        private int variableCount = 0;
+        private final Map<String, Integer> variableIndex = new HashMap<>();
+        private int top = 0;
+        private int maxStack = 0;
+
+        // Append the postfix traversal of expression
+        void append(Expression expression) {
+            for (Traversal.Postorder nodes = new Traversal.Postorder(expression, false); nodes.hasNext(); ) {
+                Expression node = nodes.next();
+                if (node instanceof Number) {
+                    constant(((Number) node).value());
+                } else if (node instanceof Variable) {
+                    variable(((Variable) node).name());
+                } else if (node instanceof Add) {
+                    operator(ADD, ((Add) node).arity());
+                } else if (node instanceof Multiply) {
+                    operator(MULTIPLY, ((Multiply) node).arity());
+                } else {
+                    throw new IllegalArgumentException("Unknown expression: " + node);
+                }
+            }
+        }
+
+        void constant(double value) {
+            // adding 0.0 turns -0.0 into 0.0, as in Number
+            double normalized = value + 0.0;
+            Integer index = constantIndex.get(Double.doubleToLongBits(normalized));
+            if (index == null) {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, 2 * constantCount);
+                }
+                index = constantCount;
+                constants[constantCount++] = normalized;
+                constantIndex.put(Double.doubleToLongBits(normalized), index);
+            }
+            emit(CONSTANT, index, 1);
+        }
+
+        void variable(String name) {
+            Integer index = variableIndex.get(name);
+            if (index == null) {
+                if (variableCount == variables.length) {
+                    variables = Arrays.copyOf(variables, 2 * variableCount);
+                }
+                index = variableCount;
+                variables[variableCount++] = name;
+                variableIndex.put(name, index);
+            }
+            emit(VARIABLE, index, 1);
+        }
+
+        void operator(int opcode, int arity) {
+            emit(opcode, arity, 1 - arity);
+        }
+
+        private void emit(int opcode, int operand, int stackChange) {
+            if (length + 2 > code.length) {
+                code = Arrays.copyOf(code, 2 * code.length);
+            }
+            code[length++] = opcode;
+            code[length++] = operand;
+            top += stackChange;
+            maxStack = Math.max(maxStack, top);
+        }
+
+        Program build() {
+            return new Program(Arrays.copyOf(code, length), Arrays.copyOf(constants, constantCount),
+                    Arrays.copyOf(variables, variableCount), maxStack);
+        }
+    }
+}
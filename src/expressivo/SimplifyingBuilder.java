@@ -0,0 +1,93 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes sums and products that are simplified as they are built, for
+ * differentiation, which would otherwise fill its results with terms like
+ * (0.0 * x) and factors like 1.0.
+ *
+ * <p>A sum adds up the numbers among its terms into one constant term placed
+ * last, and drops it if it is zero. A product multiplies the numbers among its
+ * factors into one coefficient placed first, drops it if it is one, and is zero
+ * if any of them is zero. Numbers whose sum or product is too large for a
+ * double are kept as they are. A sum or product left with one operand is that operand, and one
+ * left with none is its identity.
+ *
+ * <p>Nested sums and products are left as they are, not flattened: the operands
+ * of a derivative are often shared with other parts of it, and flattening would
+ * copy them apart.
+ */
+final class SimplifyingBuilder {
+
+    private SimplifyingBuilder() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param terms expressions to add, at least one
+     * @return an expression equal in value to the sum of terms, simplified as described above
+     */
+    static Expression sum(Expression... terms) {
+        List<Expression> kept = new ArrayList<>(terms.length + 1);
+        List<Expression> numbers = new ArrayList<>(2);
+        collect(terms, kept, numbers);
+        double constant = 0;
+        for (Expression number : numbers) {
+            constant += ((Number) number).value();
+        }
+        if (!Double.isFinite(constant)) {
+            // too large to fold into one number: keep them as they are
+            kept.addAll(numbers);
+        } else if (constant != 0 || kept.isEmpty()) {
+            kept.add(ExpressionFactory.number(constant));
+        }
+        if (kept.size() == 1) {
+            return kept.get(0);
+        }
+        return ExpressionFactory.add(kept.toArray(new Expression[kept.size()]));
+    }
+
+    /**
+     * @param factors expressions to multiply, at least one
+     * @return an expression equal in value to the product of factors, simplified as
+     *         described above
+     */
+    static Expression product(Expression... factors) {
+        List<Expression> kept = new ArrayList<>(factors.length + 1);
+        List<Expression> numbers = new ArrayList<>(2);
+        collect(factors, kept, numbers);
+        double coefficient = 1;
+        for (Expression number : numbers) {
+            double value = ((Number) number).value();
+            if (value == 0) {
+                // checked per factor, as a product that overflows to infinity and then
+                // meets a zero is NaN
+                return ExpressionFactory.number(0);
+            }
+            coefficient *= value;
+        }
+        if (!Double.isFinite(coefficient)) {
+            // too large to fold into one number: keep them as they are
+            kept.addAll(0, numbers);
+        } else if (coefficient != 1 || kept.isEmpty()) {
+            kept.add(0, ExpressionFactory.number(coefficient));
+        }
+        if (kept.size() == 1) {
+            return kept.get(0);
+        }
+        return ExpressionFactory.multiply(kept.toArray(new Expression[kept.size()]));
+    }
+
+    // Append the operands to kept if they are not numbers, and to numbers if they are
+    private static void collect(Expression[] operands, List<Expression> kept, List<Expression> numbers) {
+        for (Expression operand : operands) {
+            if (operand instanceof Number) {
+                numbers.add(operand);
+            } else {
+                kept.add(operand);
+            }
+        }
+    }
+}
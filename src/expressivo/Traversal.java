@@ -0,0 +1,380 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Traversals of expressions that keep their position on an explicit stack in
+ * the heap instead of on the call stack, so that operations on an expression
+ * work at any depth the heap can hold, with the default thread stack size.
+ *
+ * <p>The variants are told apart in this one place, by instanceof on the
+ * final set of variants Number, Variable, Add and Multiply; a sum and a product
+ * are both an operator with operands, reached through arity() and operand().
+ */
+final class Traversal {
+
+    private static final int INITIAL_DEPTH = 16;
+    // largest size(), as a tree, of an expression that equal() compares without remembering
+    // the pairs it compared; walking it as a tree takes at most this many steps
+    private static final long TREE_WALK_LIMIT = 1 << 20;
+    // smallest size(), as a tree, of a subtree that evaluate() remembers the value of
+    private static final long MEMO_SIZE = 64;
+
+    private Traversal() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param expression an expression
+     * @return number of operands of expression, or 0 for a number or variable
+     */
+    static int arity(Expression expression) {
+        if (expression instanceof Add) {
+            return ((Add) expression).arity();
+        } else if (expression instanceof Multiply) {
+            return ((Multiply) expression).arity();
+        }
+        return 0;
+    }
+
+    /**
+     * @param expression a sum or product
+     * @param i index of an operand, 0 <= i < arity(expression)
+     * @return the i-th operand of expression
+     */
+    static Expression operand(Expression expression, int i) {
+        return expression instanceof Add ? ((Add) expression).operand(i) : ((Multiply) expression).operand(i);
+    }
+
+    /**
+     * Iterates over the nodes of an expression in postorder: each node comes after all of
+     * its operands, left to right, and the expression itself comes last.
+     */
+    static final class Postorder implements Iterator<Expression> {
+        private final Map<Expression, Boolean> seen;
+        private Expression[] nodes = new Expression[INITIAL_DEPTH];
+        private int[] next = new int[INITIAL_DEPTH];
+        private int top = 0;
+
+        // Abstraction function
+        //   represents the nodes still to be returned: for each frame i from top - 1 down to 0,
+        //   the operands of nodes[i] from next[i] on, each in postorder, then nodes[i]
+        // Representation invariant
+        //   nodes[i + 1] is an operand of nodes[i]; 0 <= next[i] <= arity(nodes[i])
+        //   seen is null, or holds every node returned or on the stack
+        // Safety from rep exposure
+        //   all fields are private, and the nodes are immutable
+
+        /**
+         * @param expression an expression
+         * @param distinct true to return a node that is the same object in several places
+         *        only once, where it first occurs; false to return it at every occurrence
+         */
+        Postorder(Expression expression, boolean distinct) {
+            this.seen = distinct ? new IdentityHashMap<>() : null;
+            push(expression);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        public Expression next() {
+            if (top == 0) {
+                throw new NoSuchElementException();
+            }
+            while (true) {
+                Expression node = nodes[top - 1];
+                if (next[top - 1] == arity(node)) {
+                    nodes[--top] = null;
+                    return node;
+                }
+                Expression child = operand(node, next[top - 1]++);
+                if (seen == null || !seen.containsKey(child)) {
+                    push(child);
+                }
+            }
+        }
+
+        /**
+         * @return the sum or product of which the node last returned by next() is an
+         *         operand, or null if that node was the expression itself
+         */
+        Expression parent() {
+            return top == 0 ? null : nodes[top - 1];
+        }
+
+        /**
+         * @return the index among the operands of parent() of the node last returned by
+         *         next(), if parent() is not null
+         */
+        int index() {
+            return next[top - 1] - 1;
+        }
+
+        private void push(Expression node) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                next = Arrays.copyOf(next, 2 * top);
+            }
+            nodes[top] = node;
+            next[top] = 0;
+            top++;
+            if (seen != null) {
+                seen.put(node, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * @param expression an expression
+     * @param fold computation to run
+     * @return the result of fold for expression, as defined by Expression.fold()
+     */
+    static <R> R fold(Expression expression, ExpressionFold<R> fold) {
+        Map<Expression, R> results = new IdentityHashMap<>();
+        R result = null;
+        for (Postorder nodes = new Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Number) {
+                result = fold.number(((Number) node).value());
+            } else if (node instanceof Variable) {
+                result = fold.variable(((Variable) node).name());
+            } else {
+                @SuppressWarnings("unchecked")
+                R[] operands = (R[]) new Object[arity(node)];
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = results.get(operand(node, i));
+                }
+                List<R> list = Arrays.asList(operands);
+                result = node instanceof Add ? fold.add(list) : fold.multiply(list);
+            }
+            results.put(node, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param expression an expression
+     * @param environment maps variables to their values
+     * @return the value of expression, as defined by Expression.evaluate()
+     * @throws IllegalArgumentException if a variable of expression has no value in environment
+     */
+    static double evaluate(Expression expression, Map<String, Double> environment) {
+        if (expression.size() < MEMO_SIZE) {
+            return evaluateTree(expression, environment, new double[INITIAL_DEPTH]);
+        }
+        return new Evaluator(environment).evaluate(expression);
+    }
+
+    /*
+     * Return the value of expression, walking it as a tree, with values as scratch space for
+     * the values of operands; values is grown if it is too small, and need not be returned.
+     */
+    private static double evaluateTree(Expression expression, Map<String, Double> environment, double[] values) {
+        int count = 0;
+        for (Postorder nodes = new Postorder(expression, false); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            int arity = arity(node);
+            double value;
+            if (arity == 0) {
+                value = node.evaluate(environment);
+            } else if (node instanceof Add) {
+                // the operands are the top arity values, in order
+                count -= arity;
+                value = 0;
+                for (int i = 0; i < arity; i++) {
+                    value += values[count + i];
+                }
+            } else {
+                count -= arity;
+                value = 1;
+                for (int i = 0; i < arity; i++) {
+                    value *= values[count + i];
+                }
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, 2 * count);
+            }
+            values[count++] = value;
+        }
+        return values[0];
+    }
+
+    /*
+     * Evaluates expressions in one environment. A subtree of at least MEMO_SIZE nodes is
+     * evaluated once however many places it is the same object in, and its value looked
+     * up after that; a smaller one is walked as a tree, which takes fewer than MEMO_SIZE
+     * steps, and is cheaper than looking it up. So a derivative whose tree is exponentially
+     * larger than its distinct nodes is evaluated in time proportional to its distinct nodes.
+     */
+    private static final class Evaluator {
+        private final Map<String, Double> environment;
+        private final Map<Expression, Double> memo = new IdentityHashMap<>();
+        // the large sums and products being evaluated, with their operands from next[i]
+        // still to evaluate and the running result of those before in results[i]
+        private Expression[] nodes = new Expression[INITIAL_DEPTH];
+        private int[] next = new int[INITIAL_DEPTH];
+        private double[] results = new double[INITIAL_DEPTH];
+        private int top = 0;
+        // scratch space for evaluateTree(), large enough for any tree of fewer than MEMO_SIZE nodes
+        private final double[] values = new double[(int) MEMO_SIZE];
+
+        // Abstraction function
+        //   represents the evaluation of nodes[0], in progress as described above, in which
+        //   every key of memo has the value memo maps it to
+        // Representation invariant
+        //   nodes[i + 1] is operand next[i] - 1 of nodes[i]; every nodes[i] has
+        //   size() >= MEMO_SIZE and is not a key of memo
+        // Safety from rep exposure
+        //   the class is private, and never escapes evaluate()
+
+        Evaluator(Map<String, Double> environment) {
+            this.environment = environment;
+        }
+
+        // Return the value of expression, of at least MEMO_SIZE nodes
+        double evaluate(Expression expression) {
+            push(expression);
+            while (true) {
+                Expression node = nodes[top - 1];
+                int i = next[top - 1];
+                if (i == arity(node)) {
+                    double value = results[top - 1];
+                    nodes[--top] = null;
+                    if (top == 0) {
+                        return value;
+                    }
+                    memo.put(node, value);
+                    combine(value);
+                    continue;
+                }
+                next[top - 1]++;
+                Expression operand = operand(node, i);
+                if (operand.size() < MEMO_SIZE) {
+                    combine(evaluateTree(operand, environment, values));
+                } else {
+                    Double value = memo.get(operand);
+                    if (value != null) {
+                        combine(value);
+                    } else {
+                        push(operand);
+                    }
+                }
+            }
+        }
+
+        private void push(Expression node) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                next = Arrays.copyOf(next, 2 * top);
+                results = Arrays.copyOf(results, 2 * top);
+            }
+            nodes[top] = node;
+            next[top] = 0;
+            top++;
+        }
+
+        // Combine the value of the operand just evaluated into the result of the top node,
+        // left to right
+        private void combine(double value) {
+            Expression node = nodes[top - 1];
+            if (next[top - 1] == 1) {
+                results[top - 1] = value;
+            } else if (node instanceof Add) {
+                results[top - 1] += value;
+            } else {
+                results[top - 1] *= value;
+            }
+        }
+    }
+
+    /**
+     * @param expression an expression
+     * @param environment maps variables to nonnegative finite values
+     * @return expression simplified, as defined by Expression.simplify()
+     * @throws IllegalArgumentException as Expression.simplify()
+     */
+    static Expression simplify(Expression expression, Map<String, Double> environment) {
+        Map<Expression, Expression> simplified = new IdentityHashMap<>();
+        Expression result = null;
+        for (Postorder nodes = new Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Add || node instanceof Multiply) {
+                Expression[] operands = new Expression[arity(node)];
+                for (int i = 0; i < operands.length; i++) {
+                    operands[i] = simplified.get(operand(node, i));
+                }
+                result = node instanceof Add
+                        ? ((Add) node).simplify(operands)
+                        : ((Multiply) node).simplify(operands);
+            } else {
+                result = node.simplify(environment);
+            }
+            simplified.put(node, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param left an expression
+     * @param right an expression
+     * @return true iff left and right are structurally equal, as defined by Expression.equals()
+     */
+    static boolean equal(Expression left, Expression right) {
+        // pairs of corresponding nodes still to compare, left at even and right at odd indices
+        Expression[] pairs = new Expression[2 * INITIAL_DEPTH];
+        int top = 0;
+        // if left is too large to walk as a tree, as when it shares subtrees, the sum or
+        // product each left node has been compared with, so that each pair is compared once
+        Map<Expression, Expression> compared = left.size() > TREE_WALK_LIMIT ? new IdentityHashMap<>() : null;
+        pairs[top++] = left;
+        pairs[top++] = right;
+        while (top > 0) {
+            Expression b = pairs[--top];
+            Expression a = pairs[--top];
+            if (a == b) {
+                continue;
+            }
+            if (a.fingerprint() != b.fingerprint() || a.getClass() != b.getClass()) {
+                return false;
+            }
+            int arity = arity(a);
+            if (arity == 0) {
+                if (!a.equals(b)) {
+                    return false;
+                }
+                continue;
+            }
+            if (arity != arity(b)) {
+                return false;
+            }
+            if (compared != null && compared.put(a, b) == b) {
+                continue;
+            }
+            if (top + 2 * arity > pairs.length) {
+                pairs = Arrays.copyOf(pairs, 2 * (top + 2 * arity));
+            }
+            // numbers and variables are compared at once, so that in a left- or right-deep
+            // expression the stack holds only the sums and products still to compare
+            for (int i = arity - 1; i >= 0; i--) {
+                Expression x = operand(a, i);
+                Expression y = operand(b, i);
+                if (arity(x) > 0) {
+                    pairs[top++] = x;
+                    pairs[top++] = y;
+                } else if (x != y && !x.equals(y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -1,16 +1,20 @@
 package expressivo;
 
+import java.util.Map;
+
 /**
  * An immutable data type representing an expression
  * that only contains a variable
  */
 public class Variable implements Expression {
     private final String variable;
+    private final long fingerprint;
     
     // Abstraction function
     //   represents the variable this.variable
     // Representation invariant
     //   should not contain spaces, should not be empty, should not be null
+    //   fingerprint == Fingerprints.variable(variable)
     // Safety from rep exposure
     //   all fields are private and final
     
@@ -20,6 +24,7 @@ public class Variable implements Expression {
      */
     public Variable(String variable) {
         this.variable = variable;
+        this.fingerprint = Fingerprints.variable(variable);
         checkRep();
     }
     
@@ -40,6 +45,7 @@ public class Variable implements Expression {
     
     @Override 
     public boolean equals(Object thatObject) {
+        if (this == thatObject) return true;
         if (!(thatObject instanceof Variable)) return false;
         Variable that = (Variable) thatObject;
         return this.variable.equals(that.variable);
@@ -49,14 +55,54 @@ public class Variable implements Expression {
     public int hashCode() {
         return variable.hashCode();
     }
+    
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+    
+    @Override
+    public long size() {
+        return 1;
+    }
+    
+    @Override
+    public int depth() {
+        return 1;
+    }
 
     @Override
     public Expression differentiate(String var) {
         // The derivative of a variable is one if the variable is the same as the variable with respect to which the expression is to be differentiated
         if (variable.equals(var)) {
-            return new Number(1);
+            return ExpressionFactory.number(1);
         }
         // The derivative of a variable is zero if the variable is different from the variable with respect to which the expression is to be differentiated
-        return new Number(0);
+        return ExpressionFactory.number(0);
+    }
+
+    @Override
+    public double evaluate(Map<String, Double> environment) {
+        Double value = environment.get(variable);
+        if (value == null) {
+            throw new IllegalArgumentException("No value for variable: " + variable);
+        }
+        return value;
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        Double value = environment.get(variable);
+        if (value == null) {
+            return this;
+        }
+        return ExpressionFactory.constant(value);
+    }
+    
+    /**
+     * @return the name of this variable
+     */
+    String name() {
+        return variable;
     }
 }
@@ -0,0 +1,32 @@
+package expressivo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Numbering of the variables of an expression, for evaluators that read
+ * variable values from arrays.
+ */
+final class Variables {
+
+    private Variables() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * @param expression an expression
+     * @return map from each distinct variable of expression to its slot, numbering the variables
+     *         0, 1, 2, ... in order of first appearance; iterates in slot order
+     */
+    static Map<String, Integer> slots(Expression expression) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        // postorder finds the variables left to right, and each distinct subtree need be seen once
+        for (Traversal.Postorder nodes = new Traversal.Postorder(expression, true); nodes.hasNext(); ) {
+            Expression node = nodes.next();
+            if (node instanceof Variable) {
+                slots.putIfAbsent(((Variable) node).name(), slots.size());
+            }
+        }
+        return slots;
+    }
+}
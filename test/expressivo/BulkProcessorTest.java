@@ -0,0 +1,105 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+/**
+ * Tests for BulkProcessor.
+ */
+public class BulkProcessorTest {
+
+    // Testing strategy
+    //   input: empty, one line, many chunks; with and without final newline; CRLF line ends
+    //   lines: valid, invalid, line longer than a chunk, deeply nested
+    //   transform: identity, differentiate, throws StackOverflowError
+
+    private static List<String> run(String input, UnaryOperator<Expression> transform,
+            BulkProcessor.Report[] report) throws IOException {
+        Path in = Files.createTempFile("bulk", ".in");
+        Path out = Files.createTempFile("bulk", ".out");
+        try {
+            Files.write(in, input.getBytes(StandardCharsets.US_ASCII));
+            report[0] = new BulkProcessor(3, 8).process(in, out, transform);
+            return Files.readAllLines(out, StandardCharsets.US_ASCII);
+        } finally {
+            Files.delete(in);
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        BulkProcessor.Report[] report = new BulkProcessor.Report[1];
+        assertEquals(Arrays.asList(), run("", UnaryOperator.identity(), report));
+        assertEquals(0, report[0].getLines());
+    }
+
+    @Test
+    public void testOrderAcrossChunks() throws IOException {
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            input.append("x * ").append(i).append(" + y\n");
+            expected.add(Expression.parse("x * " + i + " + y").differentiate("x").toString());
+        }
+        BulkProcessor.Report[] report = new BulkProcessor.Report[1];
+        assertEquals(expected, run(input.toString(), e -> e.differentiate("x"), report));
+        assertEquals(500, report[0].getLines());
+        assertEquals(0, report[0].getErrorCount());
+        assertEquals(input.length(), report[0].getBytes());
+    }
+
+    @Test
+    public void testErrorsDoNotStopTheJob() throws IOException {
+        String longLine = "x + y + z + x + y + z + x + y + z";
+        BulkProcessor.Report[] report = new BulkProcessor.Report[1];
+        List<String> output = run("1 + 2\r\nx +\n" + longLine + "\n\n(x", UnaryOperator.identity(), report);
+        assertEquals(Arrays.asList("(1.0 + 2.0)", "", Expression.parse(longLine).toString(), "", ""), output);
+        assertEquals(5, report[0].getLines());
+        assertEquals(3, report[0].getErrorCount());
+        assertEquals(2, report[0].getErrors().get(0).getLine());
+        assertEquals(4, report[0].getErrors().get(1).getLine());
+        assertEquals(5, report[0].getErrors().get(2).getLine());
+    }
+
+    @Test
+    public void testStackOverflowDoesNotStopTheJob() throws IOException {
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            deep.append('(');
+        }
+        deep.append('x');
+        for (int i = 0; i < 200_000; i++) {
+            deep.append(')');
+        }
+        BulkProcessor.Report[] report = new BulkProcessor.Report[1];
+        List<String> output = run("x + 2\n" + deep + "\ny * 3\n", UnaryOperator.identity(), report);
+        assertEquals(3, output.size());
+        assertEquals("(x + 2.0)", output.get(0));
+        assertEquals("x", output.get(1));
+        assertEquals("(y * 3.0)", output.get(2));
+
+        UnaryOperator<Expression> overflowOnY = expression -> {
+            if (expression.toString().contains("y")) {
+                throw new StackOverflowError();
+            }
+            return expression;
+        };
+        output = run("x + 2\ny * 3\nx * 3\n", overflowOnY, report);
+        assertEquals(Arrays.asList("(x + 2.0)", "", "(x * 3.0)"), output);
+        assertEquals(1, report[0].getErrorCount());
+        assertEquals(2, report[0].getErrors().get(0).getLine());
+        assertTrue(report[0].getErrors().get(0).toString(),
+                report[0].getErrors().get(0).toString().contains("StackOverflowError"));
+    }
+}
@@ -0,0 +1,134 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for ColumnEvaluator.
+ */
+public class ColumnEvaluatorTest {
+
+    // Testing strategy
+    //   expression: number, variable, sum, product, nested operands in each position,
+    //     shared subtrees, deeply nested
+    //   length: 0, less than a block, several blocks with a partial last block
+    //   columns: given by map, by array with extra columns and longer columns, missing, unequal
+
+    private static final String[] INPUTS = {
+        "2.5", "x", "x + 1", "1 + x", "x * y * 3", "(x + y) * (x + 0.5) + z * z * z",
+        "(x * (y + (z * (x + 2)))) + 4", "((x + y) * z + 1) * (y + 2) * x"
+    };
+
+    @Test
+    public void testMatchesEvaluate() {
+        Random random = new Random(1);
+        int length = 2 * ColumnEvaluator.BLOCK + 37;
+        Map<String, double[]> columns = new HashMap<>();
+        for (String name : new String[] { "x", "y", "z" }) {
+            double[] column = new double[length];
+            for (int p = 0; p < length; p++) {
+                column[p] = random.nextDouble() * 10;
+            }
+            columns.put(name, column);
+        }
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            double[] output = new ColumnEvaluator(expression).evaluate(columns);
+            assertEquals(input, length, output.length);
+            for (int p = 0; p < length; p++) {
+                Map<String, Double> environment = new HashMap<>();
+                for (Map.Entry<String, double[]> column : columns.entrySet()) {
+                    environment.put(column.getKey(), column.getValue()[p]);
+                }
+                assertEquals(input + " at " + p, expression.evaluate(environment), output[p], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testArrayColumnsInVariableOrder() {
+        ColumnEvaluator evaluator = new ColumnEvaluator(Expression.parse("b * a + 1"));
+        assertEquals(Arrays.asList("b", "a"), evaluator.variables());
+        double[][] columns = { { 2, 3, 4, 99 }, { 5, 6, 7, 99 }, { 99, 99, 99, 99 } };
+        double[] output = new double[4];
+        evaluator.evaluate(columns, output, 3);
+        assertArrayEquals(new double[] { 11, 19, 29, 0 }, output, 0);
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        ColumnEvaluator evaluator = new ColumnEvaluator(Expression.parse("x * x"));
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[0]);
+        assertEquals(0, evaluator.evaluate(columns).length);
+    }
+
+    @Test
+    public void testConstantWithoutColumns() {
+        ColumnEvaluator evaluator = new ColumnEvaluator(Expression.parse("2 * 3.5"));
+        assertArrayEquals(new double[] { 7 }, evaluator.evaluate(new HashMap<>()), 0);
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        Expression sum = Expression.parse("x + y");
+        Expression square = ExpressionFactory.multiply(sum, sum);
+        Expression expression = ExpressionFactory.add(square, ExpressionFactory.multiply(sum, square, x()), sum);
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] { 0.5, 2, 3 });
+        columns.put("y", new double[] { 1.5, 0.25, 7 });
+        double[] output = new ColumnEvaluator(expression).evaluate(columns);
+        for (int p = 0; p < 3; p++) {
+            Map<String, Double> environment = new HashMap<>();
+            environment.put("x", columns.get("x")[p]);
+            environment.put("y", columns.get("y")[p]);
+            assertEquals(expression.evaluate(environment), output[p], 0);
+        }
+
+        // 2^42 nodes as a tree, 82 distinct
+        Expression power = sum;
+        for (int i = 0; i < 40; i++) {
+            power = ExpressionFactory.multiply(power, power);
+        }
+        columns.put("x", new double[] { 0.25, 0, 1 });
+        columns.put("y", new double[] { 0.75, 0, 0 });
+        assertArrayEquals(new double[] { 1, 0, 1 }, new ColumnEvaluator(power).evaluate(columns), 0);
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        // x + (x * (x + (x * ...))), nested on the right, 100,000 levels deep
+        Expression expression = x();
+        for (int i = 0; i < 100_000; i++) {
+            expression = i % 2 == 0 ? ExpressionFactory.multiply(x(), expression) : ExpressionFactory.add(x(), expression);
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] { 1, 0 });
+        assertArrayEquals(new double[] { 50_001, 0 }, new ColumnEvaluator(expression).evaluate(columns), 0);
+    }
+
+    private static Expression x() {
+        return ExpressionFactory.variable("x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingColumn() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] { 1 });
+        new ColumnEvaluator(Expression.parse("x + y")).evaluate(columns);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnequalColumns() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] { 1 });
+        columns.put("y", new double[] { 1, 2 });
+        new ColumnEvaluator(Expression.parse("x + y")).evaluate(columns);
+    }
+}
@@ -5,6 +5,9 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Test;
 
 /**
@@ -21,6 +24,12 @@ public class CommandsTest {
     //     either is number, either is variable, either is sub-expression
     //   Tests for multiply expressions
     //     either is number, either is variable, either is sub-expression
+    //   Tests for differentiate
+    //     result has zero terms, unit factors, numbers to fold; numbers too large to fold
+    //   Tests for simplify
+    //     all, some or no variables bound; result zero, one, other; negative value
+    //   Tests for the Expression overloads
+    //     same result as the String versions; input not reparsed
     
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
@@ -44,17 +53,77 @@ public class CommandsTest {
 
     @Test
     public void testDifferentiateAdd() {
-        assertEquals("(1.0 + 0.0)", Commands.differentiate("x + 1", "x"));
-        assertEquals("(0.0 + 1.0)", Commands.differentiate("1 + x", "x"));
-        assertEquals("(1.0 + 1.0)", Commands.differentiate("x + x", "x"));
-        assertEquals("(0.0 + 0.0)", Commands.differentiate("x + x", "y"));
+        assertEquals("1.0", Commands.differentiate("x + 1", "x"));
+        assertEquals("1.0", Commands.differentiate("1 + x", "x"));
+        assertEquals("2.0", Commands.differentiate("x + x", "x"));
+        assertEquals("0.0", Commands.differentiate("x + x", "y"));
     }
 
     @Test
     public void testDifferentiateMultiply() {
         assertEquals("1.0", Commands.differentiate("x * 1", "x"));
         assertEquals("1.0", Commands.differentiate("1 * x", "x"));
-        assertEquals("((1.0 * x) + (x * 1.0))", Commands.differentiate("x * x", "x"));
-        assertEquals("((0.0 * x) + (x * 0.0))", Commands.differentiate("x * x", "y"));
+        assertEquals("(x + x)", Commands.differentiate("x * x", "x"));
+        assertEquals("0.0", Commands.differentiate("x * x", "y"));
+        assertEquals("(y * z)", Commands.differentiate("x * y * z", "x"));
+        assertEquals("((3.0 * x) + (3.0 * x))", Commands.differentiate("3 * x * x", "x"));
+        assertEquals("((x + 3.0) + (x + 2.0))", Commands.differentiate("(x + 2) * (x + 3)", "x"));
+        assertEquals("(2.0 * (y + 1.0))", Commands.differentiate("x * 2 * (y + 1)", "x"));
+    }
+
+    @Test
+    public void testSimplifyFullyBound() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 0.5);
+        assertEquals("3.0", Commands.simplify("1 + 2", environment));
+        assertEquals("5.0", Commands.simplify("x * x + 1", environment));
+        assertEquals(Double.toString((2.0 + 0.5) * (2.0 * 0.5 + 0.2)), Commands.simplify("(x + y) * (x * y + 0.2)", environment));
+        assertEquals("0.0", Commands.simplify("x * 0", environment));
+    }
+
+    @Test
+    public void testSimplifyPartiallyBound() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        assertEquals("y", Commands.simplify("y", environment));
+        assertEquals("(y + 3.0)", Commands.simplify("x + y + 1", environment));
+        assertEquals("(6.0 * y)", Commands.simplify("x * y * 3", environment));
+        assertEquals("y", Commands.simplify("x * y * 0.5", environment));
+        assertEquals("(y + (4.0 * z))", Commands.simplify("y + x * x * z", environment));
+        assertEquals("(y * z)", Commands.simplify("y * z", new HashMap<>()));
+    }
+
+    @Test
+    public void testExpressionOverloads() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        String[] inputs = { "x", "x * x * y", "(x + 2) * (x + 3) + y" };
+        for (String input : inputs) {
+            Expression expression = Expression.parse(input);
+            assertEquals(Commands.differentiate(input, "x"), Commands.differentiate(expression, "x").toString());
+            assertEquals(Commands.simplify(input, environment), Commands.simplify(expression, environment).toString());
+        }
+        Expression bound = Expression.parse("y * z");
+        assertSame(bound, Commands.simplify(bound, environment));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSimplifyNegativeValue() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", -1.0);
+        Commands.simplify("x + 1", environment);
+    }
+
+    @Test
+    public void testDifferentiateNumbersTooLargeToFold() {
+        // 1e200 * 1e200 overflows; the term for y would then multiply infinity by 0
+        String large = "1" + new String(new char[200]).replace('\0', '0');
+        String derivative = Commands.differentiate("x * " + large + " * " + large + " * y", "x");
+        assertFalse(derivative, derivative.contains("NaN") || derivative.contains("Infinity"));
+        assertEquals(Expression.parse(large + " * " + large + " * y"), Expression.parse(derivative));
+
+        String sum = Commands.differentiate(large + " * x * " + large + " * x * x", "x");
+        assertFalse(sum, sum.contains("NaN") || sum.contains("Infinity"));
     }
 }
@@ -0,0 +1,105 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for CommonSubexpressions.
+ */
+public class CommonSubexpressionsTest {
+
+    // Testing strategy
+    //   expression: number, variable, no repeated subtrees, repeated leaves, repeated sums and
+    //     products, input already shared, derivative of a product of many factors
+    //   operations: expression, size, distinctNodes, compressionRatio, evaluate, differentiate,
+    //     toString, statistics
+
+    private static Map<String, Double> environment() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.5);
+        environment.put("y", 0.25);
+        return environment;
+    }
+
+    @Test
+    public void testLeaves() {
+        CommonSubexpressions number = CommonSubexpressions.of(Expression.parse("2.5"));
+        assertEquals(1, number.distinctNodes());
+        assertEquals(1, number.compressionRatio(), 0);
+        assertEquals("2.5", number.toString());
+        CommonSubexpressions variable = CommonSubexpressions.of(Expression.parse("x"));
+        assertEquals(1.5, variable.evaluate(environment()), 0);
+    }
+
+    @Test
+    public void testNothingShared() {
+        Expression expression = Expression.parse("x + 2 * y");
+        CommonSubexpressions cse = CommonSubexpressions.of(expression);
+        assertSame(expression, cse.expression());
+        assertEquals(5, cse.distinctNodes());
+        assertEquals(1, cse.compressionRatio(), 0);
+    }
+
+    @Test
+    public void testRepeatedSubtrees() {
+        Expression expression = Expression.parse("(x + y) * (x + y) * (x + y) + (x + y) * (x + y) * (x + y)");
+        CommonSubexpressions cse = CommonSubexpressions.of(expression);
+        assertEquals(expression, cse.expression());
+        assertEquals(21, cse.size());
+        // x, y, x + y, the product and the sum
+        assertEquals(5, cse.distinctNodes());
+        assertEquals(4.2, cse.compressionRatio(), 1e-12);
+        assertEquals("21 nodes, 5 distinct (4.2x compression)", cse.statistics());
+        assertEquals(expression.toString(), cse.toString());
+        assertEquals(expression.evaluate(environment()), cse.evaluate(environment()), 0);
+
+        Multiply product = (Multiply) ((Add) cse.expression()).operand(0);
+        assertSame(product, ((Add) cse.expression()).operand(1));
+        assertSame(product.operand(0), product.operand(2));
+    }
+
+    @Test
+    public void testAlreadyShared() {
+        Expression sum = Expression.parse("x + y");
+        Expression product = ExpressionFactory.multiply(sum, sum, sum, sum);
+        CommonSubexpressions cse = CommonSubexpressions.of(product);
+        assertSame(product, cse.expression());
+        assertEquals(4, cse.distinctNodes());
+    }
+
+    @Test
+    public void testDifferentiate() {
+        Expression expression = Expression.parse("(x + 1) * (x + 2) * (x + 3) * (x + y)");
+        CommonSubexpressions cse = CommonSubexpressions.of(expression);
+        CommonSubexpressions derivative = cse.differentiate("x");
+        assertEquals(expression.differentiate("x"), derivative.expression());
+        assertEquals(expression.differentiate("x").evaluate(environment()),
+                derivative.evaluate(environment()), 1e-12);
+    }
+
+    @Test
+    public void testRepeatedDerivatives() {
+        // tree size of the derivatives grows exponentially; distinct nodes do not
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 1; i < 10; i++) {
+            input.append(" * (x + ").append(i).append(")");
+        }
+        CommonSubexpressions cse = CommonSubexpressions.of(Expression.parse(input.toString()));
+        for (int n = 0; n < 4; n++) {
+            cse = cse.differentiate("x");
+        }
+        assertTrue(cse.compressionRatio() > 100);
+        Map<String, Double> environment = environment();
+        assertEquals(cse.expression().evaluate(environment), cse.evaluate(environment), 1e-9);
+        assertEquals(cse.expression().toString(), cse.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        CommonSubexpressions.of(Expression.parse("x * z")).evaluate(environment());
+    }
+}
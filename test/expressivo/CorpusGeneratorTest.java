@@ -0,0 +1,207 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for CorpusGenerator.
+ */
+public class CorpusGeneratorTest {
+
+    // Testing strategy
+    //   reproducibility: same seed, different seed, any order of indices
+    //   nodes: one size, a range; sizes that fit the fan-out and sizes that do not
+    //   depth: limited, unlimited; spine 0, 1
+    //   fan-out: 2, > 2
+    //   leaves: only variables, only numbers, whole numbers, numbers with decimals
+    //   repetition: 0, between 0 and 1
+    //   write: several chunks, empty corpus
+    //   invalid settings
+
+    // Depth of an expression: 1 for a number or variable
+    private static final ExpressionFold<Integer> DEPTH = new ExpressionFold<Integer>() {
+        @Override public Integer number(double value) { return 1; }
+        @Override public Integer variable(String name) { return 1; }
+        @Override public Integer add(List<Integer> operands) { return 1 + max(operands); }
+        @Override public Integer multiply(List<Integer> operands) { return 1 + max(operands); }
+    };
+
+    // Most operands of any sum or product of an expression, or 0 if there is none
+    private static final ExpressionFold<Integer> FAN_OUT = new ExpressionFold<Integer>() {
+        @Override public Integer number(double value) { return 0; }
+        @Override public Integer variable(String name) { return 0; }
+        @Override public Integer add(List<Integer> operands) { return Math.max(operands.size(), max(operands)); }
+        @Override public Integer multiply(List<Integer> operands) { return Math.max(operands.size(), max(operands)); }
+    };
+
+    private static int max(List<Integer> values) {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    @Test
+    public void testReproducible() {
+        CorpusGenerator generator = CorpusGenerator.builder().seed(42).build();
+        CorpusGenerator same = CorpusGenerator.builder().seed(42).build();
+        CorpusGenerator other = CorpusGenerator.builder().seed(43).build();
+        int differences = 0;
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(generator.expression(i), same.expression(i));
+            assertEquals(generator.text(i), generator.expression(i).toString());
+            if (!generator.expression(i).equals(other.expression(i))) {
+                differences++;
+            }
+        }
+        assertTrue("differences: " + differences, differences > 90);
+    }
+
+    @Test
+    public void testNodeRange() {
+        CorpusGenerator generator = CorpusGenerator.builder().nodes(50, 60).maxFanOut(3).build();
+        Set<Long> sizes = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            Expression expression = generator.expression(i);
+            assertTrue(expression.toString(), expression.size() >= 49 && expression.size() <= 60);
+            assertTrue(expression.toString(), expression.fold(FAN_OUT) <= 3);
+            assertEquals(expression.toString(), generator.text(i));
+            assertEquals(expression, Expression.parse(generator.text(i)));
+            sizes.add(expression.size());
+        }
+        assertTrue(sizes.toString(), sizes.size() > 5);
+    }
+
+    @Test
+    public void testExactSizes() {
+        CorpusGenerator wide = CorpusGenerator.builder().nodes(40, 40).maxFanOut(5).build();
+        // a sum or product of two operands has an odd number of nodes
+        CorpusGenerator binary = CorpusGenerator.builder().nodes(40, 40).maxFanOut(2).build();
+        for (int i = 0; i < 50; i++) {
+            assertEquals(40, wide.expression(i).size());
+            assertEquals(39, binary.expression(i).size());
+            assertEquals(2, (int) binary.expression(i).fold(FAN_OUT));
+        }
+        assertEquals(3, CorpusGenerator.builder().nodes(2, 3).build().expression(0).size());
+        assertEquals(1, CorpusGenerator.builder().nodes(2, 2).build().expression(0).size());
+    }
+
+    @Test
+    public void testMaxDepth() {
+        CorpusGenerator generator = CorpusGenerator.builder().nodes(200, 200).maxDepth(4).spine(0.5).build();
+        for (int i = 0; i < 50; i++) {
+            Expression expression = generator.expression(i);
+            assertTrue(expression.toString(), expression.fold(DEPTH) <= 4);
+            assertTrue(expression.size() <= 200);
+        }
+        assertEquals(1, CorpusGenerator.builder().maxDepth(1).build().expression(0).size());
+    }
+
+    @Test
+    public void testSpine() {
+        CorpusGenerator generator = CorpusGenerator.builder().nodes(101, 101).maxFanOut(2).spine(1).build();
+        assertEquals(51, (int) generator.expression(0).fold(DEPTH));
+
+        // deeper than a recursive generator or printer could go
+        Expression deep = CorpusGenerator.builder().nodes(200_001, 200_001).maxFanOut(2).spine(1).build()
+                .expression(0);
+        assertEquals(200_001, deep.size());
+        assertEquals(100_001, (int) deep.fold(DEPTH));
+        assertTrue(deep.toString().startsWith("(("));
+    }
+
+    @Test
+    public void testLeaves() {
+        CorpusGenerator variables = CorpusGenerator.builder().nodes(100, 100).constants(0).variables(2).build();
+        assertTrue(variables.text(0).matches("[ab()+* ]+"));
+
+        CorpusGenerator whole = CorpusGenerator.builder().nodes(100, 100).constants(1).decimals(0).maxConstant(5).build();
+        assertTrue(whole.text(0), whole.text(0).matches("([2-5]\\.0|[()+* ])+"));
+
+        CorpusGenerator large = CorpusGenerator.builder().nodes(100, 100).constants(1)
+                .maxConstant(CorpusGenerator.Builder.MAX_CONSTANT).build();
+        assertEquals(large.expression(0).toString(), large.text(0));
+
+        CorpusGenerator decimals = CorpusGenerator.builder().nodes(100, 100).constants(1).decimals(1).maxConstant(3).build();
+        assertEquals(decimals.expression(0).toString(), decimals.text(0));
+        for (String number : decimals.text(0).split("[()+* ]+")) {
+            if (!number.isEmpty()) {
+                double value = Double.parseDouble(number);
+                assertTrue(number, value > 0 && value < 3 && value != Math.rint(value));
+            }
+        }
+    }
+
+    @Test
+    public void testRepetition() {
+        CorpusGenerator unique = CorpusGenerator.builder().nodes(30, 30).build();
+        CorpusGenerator repeated = CorpusGenerator.builder().nodes(30, 30).repetition(0.5).build();
+        Set<Expression> uniqueExpressions = new HashSet<>();
+        Set<Expression> repeatedExpressions = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            uniqueExpressions.add(unique.expression(i));
+            repeatedExpressions.add(repeated.expression(i));
+        }
+        assertEquals(2000, uniqueExpressions.size());
+        assertTrue("distinct: " + repeatedExpressions.size(),
+                repeatedExpressions.size() > 850 && repeatedExpressions.size() < 1150);
+        assertTrue(repeatedExpressions.contains(repeated.expression(0)));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        // nodes(...) large enough that the corpus is written in several chunks
+        CorpusGenerator generator = CorpusGenerator.builder().seed(7).nodes(1, 20_000).repetition(0.2).build();
+        File file = File.createTempFile("corpus", ".txt");
+        file.deleteOnExit();
+        long bytes = generator.write(file.toPath(), 300);
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(300, lines.size());
+        assertEquals(file.length(), bytes);
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(generator.expression(i).toString(), lines.get(i));
+        }
+
+        assertEquals(0, generator.write(file.toPath(), 0));
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        CorpusGenerator.Builder builder = CorpusGenerator.builder();
+        String[] failed = { "nodes", "maxDepth", "maxFanOut", "variables", "maxConstant", "spine", "repetition" };
+        Runnable[] settings = {
+            () -> builder.nodes(5, 4),
+            () -> builder.maxDepth(0),
+            () -> builder.maxFanOut(1),
+            () -> builder.variables(0),
+            () -> builder.maxConstant(CorpusGenerator.Builder.MAX_CONSTANT + 1),
+            () -> builder.spine(Double.NaN),
+            () -> builder.repetition(1.5),
+        };
+        for (int i = 0; i < settings.length; i++) {
+            try {
+                settings[i].run();
+                fail("expected IllegalArgumentException from " + failed[i]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            builder.build().expression(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionCodec.
+ */
+public class ExpressionCodecTest {
+
+    // Testing strategy
+    //   expression: number (small integer, large integer, fraction), variable, sum, product,
+    //     nested, repeated variables
+    //   writer/reader: byte array, ByteBuffer (heap, direct, several records), stream
+    //   invalid record: bad magic, bad version, truncated, trailing bytes; header claiming
+    //     huge counts, from a buffer and a stream
+
+    private static final String[] INPUTS = {
+        "0", "1", "127", "128", "3000000000", "2.5", "x", "x + 1", "x * y * 3",
+        "(x + y) * (x + 0.5) + z * z * z", "(foo * (bar + (foo * (x + 2.75)))) + 4"
+    };
+
+    @Test
+    public void testRoundTrip() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            assertEquals(input, expression, ExpressionCodec.decode(ExpressionCodec.encode(expression)));
+        }
+    }
+
+    @Test
+    public void testSmallerThanText() {
+        Expression expression = Expression.parse("(x + y) * (x + 1) + z * z * z + 2.5 * x");
+        assertTrue(ExpressionCodec.encode(expression).length < expression.toString().length());
+    }
+
+    @Test
+    public void testSmallIntegerIsOneByte() {
+        // header, no variables, one node, one node byte
+        assertEquals(5, ExpressionCodec.encode(Expression.parse("5")).length);
+    }
+
+    @Test
+    public void testDirectBufferHoldsSeveralRecords() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (String input : INPUTS) {
+            ExpressionCodec.write(Expression.parse(input), buffer);
+        }
+        buffer.flip();
+        for (String input : INPUTS) {
+            assertEquals(input, Expression.parse(input), ExpressionCodec.read(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String input : INPUTS) {
+            ExpressionCodec.write(Expression.parse(input), out);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (String input : INPUTS) {
+            assertEquals(input, Expression.parse(input), ExpressionCodec.read(in));
+        }
+        assertNull(ExpressionCodec.read(in));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testStreamEndsInsideRecord() throws IOException {
+        byte[] record = ExpressionCodec.encode(Expression.parse("x * y"));
+        ExpressionCodec.read(new ByteArrayInputStream(Arrays.copyOf(record, record.length - 1)));
+    }
+
+    @Test
+    public void testInvalidRecords() {
+        byte[] record = ExpressionCodec.encode(Expression.parse("x * y + 2.5"));
+        byte[] badMagic = record.clone();
+        badMagic[0] = 0;
+        byte[] badVersion = record.clone();
+        badVersion[1] = 99;
+        byte[][] invalid = {
+            new byte[0], badMagic, badVersion,
+            Arrays.copyOf(record, record.length - 1), Arrays.copyOf(record, record.length + 1)
+        };
+        for (byte[] bytes : invalid) {
+            try {
+                ExpressionCodec.decode(bytes);
+                fail("expected IllegalArgumentException for " + Arrays.toString(bytes));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testHugeCountsInHeader() throws IOException {
+        byte[][] invalid = {
+            // 2^31 - 1 variables, the first named by 7 letters that are not there
+            { (byte) 0xE7, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+            // one variable, with a name of 2^31 - 1 letters
+            { (byte) 0xE7, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'x' },
+        };
+        for (byte[] bytes : invalid) {
+            try {
+                ExpressionCodec.decode(bytes);
+                fail("expected IllegalArgumentException for " + Arrays.toString(bytes));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                ExpressionCodec.read(new ByteArrayInputStream(bytes));
+                fail("expected EOFException for " + Arrays.toString(bytes));
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+}
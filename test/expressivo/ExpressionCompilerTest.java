@@ -0,0 +1,133 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionCompiler and CompiledExpression.
+ */
+public class ExpressionCompilerTest {
+
+    // Testing strategy
+    //   expression: number, variable, sum, product, nested; many variables; too large to generate,
+    //     as a tree and as a DAG of shared subtrees; as deep as fits in generated code
+    //   order: sums and products of more than two operands computed left to right
+    //   cache: equal expression, unequal expression
+    //   evaluate: array, map, missing variable
+
+    @Test
+    public void testGeneratedMatchesInterpreter() {
+        String[] inputs = { "2.5", "0", "x", "x + 1", "x * y * 3", "(x + y) * (x + 0.5) + z * z * z" };
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.25);
+        environment.put("y", 3.0);
+        environment.put("z", 0.75);
+        for (String input : inputs) {
+            Expression expression = Expression.parse(input);
+            CompiledExpression compiled = ExpressionCompiler.compile(expression);
+            assertTrue(input, compiled.isGenerated());
+            assertEquals(input, expression.evaluate(environment), compiled.evaluate(environment), 0);
+        }
+    }
+
+    @Test
+    public void testSlotsInOrderOfAppearance() {
+        CompiledExpression compiled = ExpressionCompiler.compile(Expression.parse("b * a + c * b"));
+        assertEquals(Arrays.asList("b", "a", "c"), compiled.variables());
+        assertEquals(2 * 3 + 5 * 2, compiled.evaluate(new double[] { 2, 3, 5 }), 0);
+    }
+
+    @Test
+    public void testManyVariables() {
+        StringBuilder input = new StringBuilder("v");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("v", 1.0);
+        String name = "v";
+        for (int i = 1; i < 300; i++) {
+            name = name + (char) ('a' + i % 26);
+            input.append(" + ").append(i).append(" * ").append(name);
+            environment.put(name, (double) i);
+        }
+        Expression expression = Expression.parse(input.toString());
+        CompiledExpression compiled = ExpressionCompiler.compile(expression);
+        assertEquals(300, compiled.variables().size());
+        assertEquals(expression.evaluate(environment), compiled.evaluate(environment), 0);
+    }
+
+    @Test
+    public void testTooLargeToGenerate() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 5000; i++) {
+            input.append(" + x * ").append(i);
+        }
+        Expression expression = Expression.parse(input.toString());
+        CompiledExpression compiled = ExpressionCompiler.compile(expression);
+        assertFalse(compiled.isGenerated());
+        assertEquals(expression.evaluate(Collections.singletonMap("x", 0.5)),
+                compiled.evaluate(new double[] { 0.5 }), 0);
+    }
+
+    @Test
+    public void testSharedTooLargeToGenerate() {
+        // 2^42 nodes as a tree, 82 distinct
+        Expression expression = Expression.parse("x + y");
+        for (int i = 0; i < 40; i++) {
+            expression = ExpressionFactory.multiply(expression, expression);
+        }
+        CompiledExpression compiled = ExpressionCompiler.compile(expression);
+        assertFalse(compiled.isGenerated());
+        assertEquals(1, compiled.evaluate(new double[] { 0.25, 0.75 }), 0);
+        assertEquals(Double.POSITIVE_INFINITY, compiled.evaluate(new double[] { 1, 1 }), 0);
+    }
+
+    @Test
+    public void testDeepGenerated() {
+        // x * (y + (x * (y + ... 1)))
+        Expression expression = ExpressionFactory.number(1);
+        for (int i = 0; i < 600; i++) {
+            expression = ExpressionFactory.multiply(ExpressionFactory.variable("x"),
+                    ExpressionFactory.add(ExpressionFactory.variable("y"), expression));
+        }
+        CompiledExpression compiled = ExpressionCompiler.compile(expression);
+        assertTrue(compiled.isGenerated());
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 0.5);
+        environment.put("y", 0.25);
+        assertEquals(expression.evaluate(environment), compiled.evaluate(new double[] { 0.5, 0.25 }), 0);
+        double[] dual = new double[2];
+        compiled.evaluateDual(new double[] { 0.5, 0.25 }, new double[] { 1, 0 }, dual);
+        assertArrayEquals(ForwardMode.evaluate(expression, environment, Collections.singletonMap("x", 1.0)),
+                dual, 1e-12);
+    }
+
+    @Test
+    public void testLeftToRight() {
+        // (1e16 + 1) + 1 rounds to 1e16 at each step, while 1e16 + (1 + 1) does not
+        Expression sum = Expression.parse("x + y + y");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1e16);
+        environment.put("y", 1.0);
+        CompiledExpression compiled = ExpressionCompiler.compile(sum);
+        assertTrue(compiled.isGenerated());
+        assertEquals(1e16, sum.evaluate(environment), 0);
+        assertEquals(1e16, compiled.evaluate(new double[] { 1e16, 1 }), 0);
+    }
+
+    @Test
+    public void testCache() {
+        CompiledExpression compiled = ExpressionCompiler.compile(Expression.parse("x * y + 7"));
+        assertSame(compiled, ExpressionCompiler.compile(Expression.parse("x*y+7")));
+        assertNotSame(compiled, ExpressionCompiler.compile(Expression.parse("y * x + 7")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        ExpressionCompiler.compile(Expression.parse("x * y")).evaluate(new HashMap<>());
+    }
+}
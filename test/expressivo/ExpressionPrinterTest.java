@@ -0,0 +1,121 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionPrinter.
+ */
+public class ExpressionPrinterTest {
+
+    // Testing strategy
+    //   style: full, minimal
+    //   number: whole, fraction, large or small enough for Double.toString to use an exponent
+    //   expression: number, variable, sum, product, sum in product, product in sum,
+    //     sum in sum, product in product, deep, random
+    //   destination: StringBuilder, Writer
+
+    @Test
+    public void testFullMatchesToString() {
+        String[] inputs = { "2.5", "x", "x + y", "x * y * z", "(x + 1) * y", "x * y + z", "(x + y) + z" };
+        for (String input : inputs) {
+            Expression expression = Expression.parse(input);
+            assertEquals(input, expression.toString(), ExpressionPrinter.toString(expression));
+        }
+    }
+
+    @Test
+    public void testMinimal() {
+        assertEquals("2.5", ExpressionPrinter.toMinimalString(Expression.parse("2.5")));
+        assertEquals("x", ExpressionPrinter.toMinimalString(Expression.parse("(x)")));
+        assertEquals("x + y + z", ExpressionPrinter.toMinimalString(Expression.parse("x + y + z")));
+        assertEquals("x * y + 2.0 * (x + 1.0)",
+                ExpressionPrinter.toMinimalString(Expression.parse("(x * y) + (2 * (x + 1))")));
+        // a sum of sums and a product of products keep their parentheses
+        assertEquals("(x + y) + z", ExpressionPrinter.toMinimalString(Expression.parse("(x + y) + z")));
+        assertEquals("x * (y * z)", ExpressionPrinter.toMinimalString(Expression.parse("x * (y * z)")));
+    }
+
+    @Test
+    public void testNumbersRoundTrip() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 10000.0);
+        Expression simplified = Expression.parse("x*x + y").simplify(environment);
+        assertEquals("y + 100000000.0", ExpressionPrinter.toMinimalString(simplified));
+        assertEquals(simplified, Expression.parse(ExpressionPrinter.toMinimalString(simplified)));
+
+        double[] values = { 3, 2.5, 1e7, 1e8, 123456789012.5, 1e21, 1.7976931348623157e308,
+                            1e-3, 1e-4, 2.5e-10, Double.MIN_VALUE };
+        for (double value : values) {
+            Expression number = ExpressionFactory.number(value);
+            String text = number.toString();
+            assertFalse(text, text.contains("E"));
+            assertEquals(text, number, Expression.parse(text));
+            Expression product = ExpressionFactory.multiply(number, ExpressionFactory.variable("x"));
+            assertEquals(product, Expression.parse(ExpressionPrinter.toString(product)));
+            assertEquals(product, Expression.parse(ExpressionPrinter.toMinimalString(product)));
+        }
+        assertEquals("0.0001", ExpressionFactory.number(1e-4).toString());
+        assertEquals("1000000000000000000000.0", ExpressionFactory.number(1e21).toString());
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        Expression expression = Expression.parse("(x + 1) * (y + 2) + x * y");
+        StringWriter full = new StringWriter();
+        ExpressionPrinter.print(expression, full);
+        assertEquals(expression.toString(), full.toString());
+        StringWriter minimal = new StringWriter();
+        ExpressionPrinter.printMinimal(expression, minimal);
+        assertEquals("(x + 1.0) * (y + 2.0) + x * y", minimal.toString());
+    }
+
+    @Test
+    public void testDeep() {
+        // ((x * y + 2) * y + 3) * y + ..., 2000 levels deep
+        Expression expression = Expression.parse("x");
+        for (int i = 0; i < 1000; i++) {
+            expression = ExpressionFactory.add(ExpressionFactory.multiply(expression, ExpressionFactory.variable("y")),
+                    ExpressionFactory.number(i + 2));
+        }
+        String minimal = ExpressionPrinter.toMinimalString(expression);
+        assertTrue(minimal.length() < expression.toString().length());
+        assertEquals(expression, Expression.parse(minimal));
+    }
+
+    @Test
+    public void testRandomRoundTrip() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < 200; trial++) {
+            Expression expression = random(random, 5);
+            String minimal = ExpressionPrinter.toMinimalString(expression);
+            assertEquals(minimal, expression, Expression.parse(minimal));
+            assertTrue(minimal, minimal.length() <= expression.toString().length());
+        }
+    }
+
+    // A random expression of depth at most depth, without the zero terms and unit factors
+    // that parsing removes
+    private static Expression random(Random random, int depth) {
+        int choice = random.nextInt(depth <= 1 ? 2 : 4);
+        switch (choice) {
+        case 0:
+            return ExpressionFactory.number(2 + random.nextInt(4) / 2.0);
+        case 1:
+            return ExpressionFactory.variable(random.nextBoolean() ? "x" : "y");
+        default:
+            Expression[] operands = new Expression[2 + random.nextInt(3)];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = random(random, depth - 1);
+            }
+            return choice == 2 ? ExpressionFactory.add(operands) : ExpressionFactory.multiply(operands);
+        }
+    }
+}
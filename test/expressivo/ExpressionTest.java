@@ -5,6 +5,15 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.junit.Test;
 
 /**
@@ -21,6 +30,19 @@ public class ExpressionTest {
     //     either is number, either is variable, either is sub-expression
     //   Tests for multiply expressions
     //     either is number, either is variable, either is sub-expression
+    //   Tests for fingerprint, size, depth
+    //     operand order, operator, grouping, numbers and names differ
+    //   Tests for differentiate
+    //     repeated, so that the derivative shares subtrees; smaller than unsimplified
+    //   Tests for evaluate, simplify
+    //     all or no variables bound; nothing to simplify
+    //   Tests for parse
+    //     same AST as the ANTLR parser; invalid input throws IllegalArgumentException
+    //     nesting far deeper than the call stack, valid and invalid
+    //   Tests for fold, and for every operation on deep expressions
+    //     depth far beyond the call stack; shared subtrees folded once
+    //   Tests for equals and evaluate on shared subtrees
+    //     equal and unequal, built separately, exponentially many paths; repeated derivatives
     
     @Test(expected = AssertionError.class)
     public void testAssertionsEnabled() {
@@ -109,6 +131,58 @@ public class ExpressionTest {
         assertTrue(e.equals(new Multiply(new Number(1), new Multiply(new Number(2), new Number(3)))));
     }
 
+    @Test
+    public void testFingerprint() {
+        Expression x = new Variable("x"), y = new Variable("y");
+        Expression[] distinct = {
+            new Add(x, y), new Add(y, x), new Multiply(x, y), new Multiply(y, x),
+            new Add(x, y, x), new Add(new Add(x, y), x), new Add(x, new Add(y, x)),
+            new Number(0), new Number(1), new Number(1e-11), x, y, new Variable("xy"),
+        };
+        for (int i = 0; i < distinct.length; i++) {
+            for (int j = 0; j < distinct.length; j++) {
+                assertEquals(i == j, distinct[i].equals(distinct[j]));
+                assertEquals(i == j, distinct[i].fingerprint() == distinct[j].fingerprint());
+            }
+        }
+        Expression e = Expression.parse("(x + y) * (x + 2.5) + z");
+        Expression same = Expression.parse("(x + y) * (x + 2.5) + z");
+        assertEquals(same.fingerprint(), e.fingerprint());
+        assertEquals(same.hashCode(), e.hashCode());
+        assertEquals(new Number(-0.0), new Number(0));
+        assertEquals(new Number(-0.0).hashCode(), new Number(0).hashCode());
+    }
+
+    @Test
+    public void testSizeAndDepth() {
+        Expression e = Expression.parse("(x + y) * (x + 2.5) + z");
+        assertEquals(9, e.size());
+        assertEquals(4, e.depth());
+        assertEquals(1, new Number(2).size());
+        assertEquals(1, new Variable("x").depth());
+    }
+
+    @Test
+    public void testEvaluate() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 3.0);
+        environment.put("y", 0.5);
+        assertEquals(2.5, new Number(2.5).evaluate(environment), 0);
+        assertEquals(3.0, new Variable("x").evaluate(environment), 0);
+        assertEquals(13.25, Expression.parse("x * x + y * (x + 1) + 2.25").evaluate(environment), 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateUnbound() {
+        Expression.parse("x + z").evaluate(new HashMap<>());
+    }
+
+    @Test
+    public void testSimplifyUnchanged() {
+        Expression e = Expression.parse("x * y + 2");
+        assertSame(e, e.simplify(new HashMap<>()));
+    }
+
     @Test 
     public void testParseNumber() {
         Expression e = Expression.parse("1.0");
@@ -121,6 +195,20 @@ public class ExpressionTest {
         assertEquals(new Number(1.5), e);   
     }
 
+    @Test
+    public void testParseNumberDecoding() {
+        String[] literals = {
+            "0", "7", "0.1", "0.3", "1.50", "007.25", "123456789012345", "1234567890123456789",
+            "99999999999999999999999", "3.141592653589793", "0.000000000000000000000001",
+            "12345678.87654321", "9007199254740993",
+        };
+        for (String literal : literals) {
+            assertEquals(literal, Double.parseDouble(literal), Lexemes.number(literal, 0, literal.length()), 0);
+            assertEquals(literal, new Number(Double.parseDouble(literal)), Expression.parse(literal));
+            assertEquals(literal, new Number(Double.parseDouble(literal)), Expression.parseWithAntlr(literal));
+        }
+    }
+
     @Test
     public void testParseVariable() {
         Expression e = Expression.parse("x");
@@ -128,6 +216,10 @@ public class ExpressionTest {
 
         e = Expression.parse("var");
         assertEquals(new Variable("var"), e);
+        
+        // repeated names share one String
+        assertSame(Lexemes.variable("x + x", 0, 1), Lexemes.variable("x + x", 4, 5));
+        assertSame(Lexemes.variable("var * var", 0, 3), Lexemes.variable("var * var", 6, 9));
     }
 
     @Test
@@ -158,8 +250,331 @@ public class ExpressionTest {
         e = Expression.parse("(1.0 + 2.0) * x");
         assertEquals(new Multiply(new Add(new Number(1), new Number(2)), new Variable("x")), e);
     }
-    
-    
-    
+
+    @Test
+    public void testParseFlattensChains() {
+        Expression x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        Expression e = Expression.parse("x + y + z");
+        assertEquals(new Add(x, y, z), e);
+        assertEquals("(x + y + z)", e.toString());
+        assertEquals(e, Expression.parse(e.toString()));
+        assertFalse(e.equals(new Add(x, new Add(y, z))));
+        
+        e = Expression.parse("x * (y * z) * 1");
+        assertEquals(new Multiply(x, new Multiply(y, z)), e);
+        assertEquals(e, Expression.parse(e.toString()));
+    }
+
+    @Test
+    public void testWideSum() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 1; i < 100000; i++) {
+            input.append(" + x * ").append(i);
+        }
+        Expression e = Expression.parse(input.toString());
+        Expression same = Expression.parse(input.toString());
+        assertEquals(same, e);
+        assertEquals(same.hashCode(), e.hashCode());
+        assertEquals(e, Expression.parse(e.toString()));
+        assertEquals(e.differentiate("x"), same.differentiate("x"));
+    }
+
+    @Test
+    public void testRepeatedDifferentiationShares() {
+        // x * (x + 1) * ... * (x + 15)
+        StringBuilder input = new StringBuilder("x");
+        for (int k = 1; k < 16; k++) {
+            input.append(" * (x + ").append(k).append(")");
+        }
+        Expression e = Expression.parse(input.toString());
+        for (int n = 1; n <= 6; n++) {
+            e = e.differentiate("x");
+        }
+        // as a tree, the 6th derivative has over 10^8 nodes
+        assertTrue(e.size() > 100_000_000L);
+        assertTrue(distinctNodes(e) < 20000);
+
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 5.0);
+        Expression fourth = Expression.parse("x * x * x * y + x * (x + 1) * (x + 2) * (x + 3)");
+        for (int n = 1; n <= 4; n++) {
+            fourth = fourth.differentiate("x");
+        }
+        // d^4/dx^4 of x^3 y + x^4 + 6x^3 + 11x^2 + 6x is 24
+        assertEquals(24.0, fourth.evaluate(environment), 0);
+    }
+
+    @Test
+    public void testDerivativeStatistics() {
+        DerivativeStatistics statistics = new DerivativeStatistics();
+        assertEquals(0, statistics.reduction(), 0);
+        Expression e = Expression.parse("x * y * z");
+        statistics.record(e, "x", e.differentiate("x"));
+        // ((1.0 * y * z) + (x * 0.0 * z) + (x * y * 0.0)) has 13 nodes, (y * z) has 3
+        assertEquals(1, statistics.derivatives());
+        assertEquals(13, statistics.unsimplifiedNodes());
+        assertEquals(3, statistics.nodes());
+        assertEquals(10.0 / 13, statistics.reduction(), 1e-12);
+    }
+
+    // Number of distinct objects among the nodes of e
+    private static int distinctNodes(Expression e) {
+        Set<Expression> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectNodes(e, seen);
+        return seen.size();
+    }
+
+    private static void collectNodes(Expression e, Set<Expression> seen) {
+        if (!seen.add(e)) {
+            return;
+        }
+        if (e instanceof Add) {
+            for (int i = 0; i < ((Add) e).arity(); i++) {
+                collectNodes(((Add) e).operand(i), seen);
+            }
+        } else if (e instanceof Multiply) {
+            for (int i = 0; i < ((Multiply) e).arity(); i++) {
+                collectNodes(((Multiply) e).operand(i), seen);
+            }
+        }
+    }
+
+    @Test
+    public void testInterning() {
+        ExpressionFactory.setInterning(true);
+        try {
+            Expression e = Expression.parse("(x + y) * (x + y) + 2.5 * z");
+            Expression same = Expression.parseWithAntlr("(x + y) * (x + y) + 2.5 * z");
+            assertSame(e, same);
+            assertSame(Expression.parse("x + y"), Expression.parse("x+y"));
+            assertSame(e.differentiate("x"), same.differentiate("x"));
+            assertSame(Expression.parse("2.5"), ExpressionFactory.number(2.5));
+            assertNotSame(Expression.parse("x + y"), Expression.parse("y + x"));
+            assertTrue(ExpressionFactory.internedCount() > 0);
+        } finally {
+            ExpressionFactory.setInterning(false);
+        }
+        assertEquals(0, ExpressionFactory.internedCount());
+        assertNotSame(Expression.parse("x + y"), Expression.parse("x + y"));
+        assertEquals(Expression.parse("x + y"), Expression.parse("x + y"));
+    }
+
+    @Test
+    public void testParseMatchesAntlr() {
+        String[] inputs = {
+            "0", "1.5", "007", "x", "Var", "x + y + z", "x * y * z", "0 + x + 0",
+            "1 * x * 1", "0 * x", "1 * 1", "2 * x + 3 * (x + 4)", "((x))",
+            "  x   *(y+ 1.25 )  ", "(x + y) * (x + y) * z + 1",
+        };
+        for (String input : inputs) {
+            assertEquals(input, Expression.parseWithAntlr(input), Expression.parse(input));
+        }
+    }
+
+    @Test
+    public void testParseWithAntlrReusedAfterError() throws InterruptedException {
+        Expression expected = Expression.parse("x * (y + 2)");
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                boolean allEqual = true;
+                for (int i = 0; i < 200; i++) {
+                    try {
+                        Expression.parseWithAntlr("x * (y + ");
+                        allEqual = false;
+                    } catch (IllegalArgumentException e) {
+                        // expected, and must not disturb the next parse
+                    }
+                    allEqual &= expected.equals(Expression.parseWithAntlr("x * (y + 2)"));
+                }
+                ok[id] = allEqual;
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
+
+    @Test
+    public void testFold() {
+        ExpressionFold<Integer> leaves = new ExpressionFold<Integer>() {
+            @Override public Integer number(double value) { return 1; }
+            @Override public Integer variable(String name) { return 1; }
+            @Override public Integer add(List<Integer> operands) { return sum(operands); }
+            @Override public Integer multiply(List<Integer> operands) { return sum(operands); }
+            private Integer sum(List<Integer> operands) {
+                int sum = 0;
+                for (int operand : operands) {
+                    sum += operand;
+                }
+                return sum;
+            }
+        };
+        assertEquals(1, (int) Expression.parse("x").fold(leaves));
+        assertEquals(5, (int) Expression.parse("x * y + 2 * (z + 1.5)").fold(leaves));
+
+        // a shared subtree is folded once, and its result reused
+        List<String> folded = new ArrayList<>();
+        ExpressionFold<String> text = new ExpressionFold<String>() {
+            @Override public String number(double value) { return Double.toString(value); }
+            @Override public String variable(String name) { return name; }
+            @Override public String add(List<String> operands) {
+                folded.add("+");
+                return "(" + String.join(" + ", operands) + ")";
+            }
+            @Override public String multiply(List<String> operands) {
+                folded.add("*");
+                return "(" + String.join(" * ", operands) + ")";
+            }
+        };
+        Expression sum = Expression.parse("x + 1");
+        Expression square = ExpressionFactory.multiply(sum, sum);
+        assertEquals(square.toString(), square.fold(text));
+        assertEquals(Arrays.asList("+", "*"), folded);
+    }
+
+    // (x + y)^(2^squarings), built by squaring: 2 * squarings + 2 distinct nodes
+    private static Expression power(int squarings, String y) {
+        Expression power = ExpressionFactory.add(ExpressionFactory.variable("x"), ExpressionFactory.variable(y));
+        for (int i = 0; i < squarings; i++) {
+            power = ExpressionFactory.multiply(power, power);
+        }
+        return power;
+    }
+
+    @Test
+    public void testEvaluateSharedSubtrees() {
+        // far too many paths to evaluate as a tree
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 0.25);
+        environment.put("y", 0.75);
+        assertEquals(1, power(40, "y").evaluate(environment), 0);
+        environment.put("x", 1.0);
+        assertEquals(Double.POSITIVE_INFINITY, power(40, "y").evaluate(environment), 0);
+
+        // repeated derivatives share subtrees through the memoized differentiation
+        Expression product = Expression.parse("x");
+        for (int k = 1; k < 16; k++) {
+            product = ExpressionFactory.multiply(product, Expression.parse("x + " + k));
+        }
+        Expression derivative = product;
+        for (int n = 1; n <= 6; n++) {
+            derivative = derivative.differentiate("x");
+        }
+        Map<String, Double> half = Collections.singletonMap("x", 0.5);
+        double expected = Polynomial.of(derivative).evaluate(half);
+        assertEquals(expected, derivative.evaluate(half), 1e-9 * expected);
+    }
+
+    @Test
+    public void testParseDeeplyNested() {
+        // far deeper than a recursive-descent parser could recurse
+        int levels = 200_000;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            text.append("(x * (");
+        }
+        text.append('y');
+        for (int i = 0; i < levels; i++) {
+            text.append(") + 1)");
+        }
+        Expression expression = Expression.parse(text.toString());
+        assertEquals(2 * levels + 1, expression.depth());
+        assertEquals(expression, Expression.parse(expression.toString()));
+
+        // errors at any depth are reported as IllegalArgumentException
+        String[] invalid = { text.substring(0, text.length() - 1), text + ")", text.toString().replace('y', '+') };
+        for (String input : invalid) {
+            try {
+                Expression.parse(input);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testEqualsSharedSubtrees() {
+        // far too many paths to compare as trees
+        Expression power = power(40, "y");
+        Expression same = power(40, "y");
+        assertNotSame(power, same);
+        assertEquals(power, same);
+        assertEquals(power.hashCode(), same.hashCode());
+        assertNotEquals(power, power(40, "z"));
+        assertNotEquals(power, power(39, "y"));
+    }
+
+    // ((x * y + 2) * y + 3) * y + ..., with depth 2 * levels + 1
+    private static Expression deepExpression(int levels) {
+        Expression expression = ExpressionFactory.variable("x");
+        for (int i = 0; i < levels; i++) {
+            expression = ExpressionFactory.add(ExpressionFactory.multiply(expression, ExpressionFactory.variable("y")),
+                    ExpressionFactory.number(i % 7 + 2));
+        }
+        return expression;
+    }
+
+    @Test
+    public void testDeepExpressions() {
+        // far deeper than the default call stack can recurse
+        int levels = 200_000;
+        Expression deep = deepExpression(levels);
+        Expression same = deepExpression(levels);
+        assertEquals(2 * levels + 1, deep.depth());
+        assertNotSame(deep, same);
+        assertEquals(deep, same);
+        assertEquals(deep.hashCode(), same.hashCode());
+        assertNotEquals(deep, deepExpression(levels - 1));
+
+        String text = deep.toString();
+        assertEquals(text, same.toString());
+        assertTrue(text.contains("((((x * y) + 2.0) * y) + 3.0)"));
+        assertTrue(text.endsWith(" * y) + 4.0)"));
+        assertEquals(deep, Expression.parse(text));
+        assertEquals(deep, Expression.parse(ExpressionPrinter.toMinimalString(deep)));
+
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        environment.put("y", 1.0);
+        double expected = 1;
+        for (int i = 0; i < levels; i++) {
+            expected += i % 7 + 2;
+        }
+        assertEquals(expected, deep.evaluate(environment), 0);
+        assertEquals(ExpressionFactory.number(expected), deep.simplify(environment));
+        Expression partly = deep.simplify(Collections.singletonMap("y", 1.0));
+        assertEquals(expected, partly.evaluate(environment), 0);
+
+        // d/dx is y^levels, here 1
+        Expression derivative = deep.differentiate("x");
+        assertEquals(1, derivative.evaluate(environment), 0);
+        // occurrences of y, counted by a fold
+        assertEquals(levels, (long) deep.fold(new ExpressionFold<Long>() {
+            @Override public Long number(double value) { return 0L; }
+            @Override public Long variable(String name) { return name.equals("y") ? 1L : 0L; }
+            @Override public Long add(List<Long> operands) { return operands.get(0) + operands.get(1); }
+            @Override public Long multiply(List<Long> operands) { return operands.get(0) + operands.get(1); }
+        }));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        String[] inputs = { "", " ", "x +", "* x", "(x", "x)", "2x", "x y", "1.", ".5", "x - y", "x\ty" };
+        for (String input : inputs) {
+            try {
+                Expression.parse(input);
+                fail("expected IllegalArgumentException for: " + input);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
 }
 
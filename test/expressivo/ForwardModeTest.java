@@ -0,0 +1,211 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for ForwardMode and CompiledExpression.evaluateDual().
+ */
+public class ForwardModeTest {
+
+    // Testing strategy
+    //   expression: number, variable, sum, product, repeated factor, zero factor, shared subtrees,
+    //     exponentially many as a tree, deeply nested
+    //   direction: one variable, a combination of variables, variables not in the expression;
+    //     one direction, k directions, k = 0
+    //   compiled: generated with dual code, generated without dual code, too large to generate
+    //   invalid: missing variable, too few tangents
+
+    private static final String[] INPUTS = {
+        "2.5", "x", "x + 1", "x * y * 3", "x * x * x", "(x + y) * (x + 0.5) + z * z * z",
+        "((x + y) * z + 1) * (y + 2) * x", "x * 0 * y + y"
+    };
+    private static final String[] NAMES = { "x", "y", "z" };
+
+    // Derivative of expression along direction at environment, from symbolic derivatives
+    private static double directional(Expression expression, Map<String, Double> environment,
+            Map<String, Double> direction) {
+        double derivative = 0;
+        for (Map.Entry<String, Double> entry : direction.entrySet()) {
+            derivative += entry.getValue() * expression.differentiate(entry.getKey()).evaluate(environment);
+        }
+        return derivative;
+    }
+
+    private static Map<String, Double> randomPoint(Random random) {
+        Map<String, Double> point = new HashMap<>();
+        for (String name : NAMES) {
+            point.put(name, random.nextDouble() * 4 - 2);
+        }
+        return point;
+    }
+
+    @Test
+    public void testMatchesSymbolicDerivatives() {
+        Random random = new Random(11);
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            for (int trial = 0; trial < 5; trial++) {
+                Map<String, Double> environment = randomPoint(random);
+                Map<String, Double> direction = randomPoint(random);
+                double[] dual = ForwardMode.evaluate(expression, environment, direction);
+                assertEquals(input, expression.evaluate(environment), dual[0], 1e-12);
+                assertEquals(input, directional(expression, environment, direction), dual[1], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testOneVariableDirection() {
+        Expression expression = Expression.parse("x * x * y + 3");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 5.0);
+        double[] dx = ForwardMode.evaluate(expression, environment, Collections.singletonMap("x", 1.0));
+        assertArrayEquals(new double[] { 23, 20 }, dx, 0);
+        double[] dy = ForwardMode.evaluate(expression, environment, Collections.singletonMap("y", 1.0));
+        assertArrayEquals(new double[] { 23, 4 }, dy, 0);
+        double[] dw = ForwardMode.evaluate(expression, environment, Collections.singletonMap("w", 1.0));
+        assertArrayEquals(new double[] { 23, 0 }, dw, 0);
+    }
+
+    @Test
+    public void testManyDirections() {
+        Expression expression = Expression.parse("(x + y) * (x + 0.5) + z * z * z");
+        Random random = new Random(3);
+        Map<String, Double> environment = randomPoint(random);
+        int k = 4;
+        Map<String, double[]> tangents = new HashMap<>();
+        for (String name : NAMES) {
+            double[] rates = new double[k];
+            for (int j = 0; j < k; j++) {
+                rates[j] = random.nextDouble();
+            }
+            tangents.put(name, rates);
+        }
+        double[] result = ForwardMode.evaluate(expression, environment, tangents, k);
+        assertEquals(k + 1, result.length);
+        assertEquals(expression.evaluate(environment), result[0], 1e-12);
+        for (int j = 0; j < k; j++) {
+            Map<String, Double> direction = new HashMap<>();
+            for (String name : NAMES) {
+                direction.put(name, tangents.get(name)[j]);
+            }
+            assertEquals(directional(expression, environment, direction), result[j + 1], 1e-9);
+        }
+
+        double[] valueOnly = ForwardMode.evaluate(expression, environment, tangents, 0);
+        assertArrayEquals(new double[] { result[0] }, valueOnly, 0);
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        Expression sum = Expression.parse("x + y");
+        Expression cube = ExpressionFactory.multiply(sum, sum, sum);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        environment.put("y", 2.0);
+        double[] dual = ForwardMode.evaluate(cube, environment, Collections.singletonMap("x", 1.0));
+        assertArrayEquals(new double[] { 27, 27 }, dual, 0);
+
+        CompiledExpression compiled = ExpressionCompiler.compile(cube);
+        double[] result = new double[2];
+        compiled.evaluateDual(new double[] { 1, 2 }, new double[] { 1, 0 }, result);
+        assertArrayEquals(new double[] { 27, 27 }, result, 0);
+    }
+
+    @Test
+    public void testExponentialSharing() {
+        // (x + y)^(2^40): 2^42 nodes as a tree, 82 distinct
+        Expression power = Expression.parse("x + y");
+        for (int i = 0; i < 40; i++) {
+            power = ExpressionFactory.multiply(power, power);
+        }
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 0.25);
+        environment.put("y", 0.75);
+        double[] expected = { 1, Math.pow(2, 40) };
+        assertArrayEquals(expected, ForwardMode.evaluate(power, environment, Collections.singletonMap("x", 1.0)), 0);
+
+        CompiledExpression compiled = ExpressionCompiler.compile(power);
+        assertFalse(compiled.isGenerated());
+        double[] result = new double[2];
+        compiled.evaluateDual(new double[] { 0.25, 0.75 }, new double[] { 1, 0 }, result);
+        assertArrayEquals(expected, result, 0);
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        // x * (x * (x * ...)), 100,000 factors
+        Expression x = ExpressionFactory.variable("x");
+        Expression expression = x;
+        for (int i = 1; i < 100_000; i++) {
+            expression = ExpressionFactory.multiply(x, expression);
+        }
+        double[] dual = ForwardMode.evaluate(expression, Collections.singletonMap("x", 1.0),
+                Collections.singletonMap("x", 1.0));
+        assertArrayEquals(new double[] { 1, 100_000 }, dual, 0);
+    }
+
+    @Test
+    public void testCompiledMatchesInterpreter() {
+        Random random = new Random(5);
+        double[] result = new double[2];
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            CompiledExpression compiled = ExpressionCompiler.compile(expression);
+            assertTrue(input, compiled.isGenerated());
+            for (int trial = 0; trial < 5; trial++) {
+                Map<String, Double> environment = randomPoint(random);
+                Map<String, Double> direction = randomPoint(random);
+                double[] values = new double[compiled.variables().size()];
+                double[] tangents = new double[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = environment.get(compiled.variables().get(i));
+                    tangents[i] = direction.get(compiled.variables().get(i));
+                }
+                compiled.evaluateDual(values, tangents, result);
+                double[] expected = ForwardMode.evaluate(expression, environment, direction);
+                assertEquals(input, expected[0], result[0], 1e-12);
+                assertEquals(input, expected[1], result[1], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledLargeExpressions() {
+        // generated, but its dual method would be too long; then too large to generate at all
+        for (int terms : new int[] { 600, 5000 }) {
+            StringBuilder input = new StringBuilder("x * y");
+            for (int i = 0; i < terms; i++) {
+                input.append(" + x * ").append(i);
+            }
+            Expression expression = Expression.parse(input.toString());
+            CompiledExpression compiled = ExpressionCompiler.compile(expression);
+            assertEquals(terms < 1000, compiled.isGenerated());
+            double[] result = new double[2];
+            compiled.evaluateDual(new double[] { 0.5, 2 }, new double[] { 1, 0 }, result);
+            double expected = 2 + (double) terms * (terms - 1) / 2;
+            assertEquals(compiled.evaluate(new double[] { 0.5, 2 }), result[0], 0);
+            assertEquals(expected, result[1], 1e-6);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        ForwardMode.evaluate(Expression.parse("x * y"), Collections.singletonMap("x", 1.0),
+                Collections.singletonMap("x", 1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFewTangents() {
+        ForwardMode.evaluate(Expression.parse("x"), Collections.singletonMap("x", 1.0),
+                Collections.singletonMap("x", new double[1]), 2);
+    }
+}
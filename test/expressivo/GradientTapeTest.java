@@ -0,0 +1,116 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for GradientTape.
+ */
+public class GradientTapeTest {
+
+    // Testing strategy
+    //   expression: number, variable, sum, product, repeated factor, zero factor, shared subtrees,
+    //     many variables
+    //   point: several points with one tape; array and map forms
+    //   invalid: point or gradient too short, missing variable
+
+    private static final String[] INPUTS = {
+        "2.5", "x", "x + 1", "x * y * 3", "x * x * x", "(x + y) * (x + 0.5) + z * z * z",
+        "((x + y) * z + 1) * (y + 2) * x", "x * 0 * y + y"
+    };
+
+    @Test
+    public void testMatchesSymbolicDerivatives() {
+        Random random = new Random(7);
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            GradientTape tape = new GradientTape(expression);
+            for (int trial = 0; trial < 5; trial++) {
+                Map<String, Double> environment = new HashMap<>();
+                for (String name : new String[] { "x", "y", "z" }) {
+                    environment.put(name, trial == 0 ? 0 : random.nextDouble() * 4);
+                }
+                Map<String, Double> gradient = tape.gradient(environment);
+                assertEquals(input, tape.variables(), Arrays.asList(gradient.keySet().toArray()));
+                for (String name : tape.variables()) {
+                    assertEquals(input + " d/d" + name, expression.differentiate(name).evaluate(environment),
+                            gradient.get(name), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReusedAcrossPoints() {
+        GradientTape tape = new GradientTape(Expression.parse("x * y + x"));
+        assertEquals(Arrays.asList("x", "y"), tape.variables());
+        double[] gradient = new double[2];
+        assertEquals(8, tape.gradient(new double[] { 2, 3 }, gradient), 0);
+        assertArrayEquals(new double[] { 4, 2 }, gradient, 0);
+        assertEquals(0, tape.gradient(new double[] { 0, 5 }, gradient), 0);
+        assertArrayEquals(new double[] { 6, 0 }, gradient, 0);
+        assertEquals(3, tape.evaluate(new double[] { 1, 2 }), 0);
+    }
+
+    @Test
+    public void testSharedSubtreesRecordedOnce() {
+        Expression square = Expression.parse("x + y");
+        Expression product = ExpressionFactory.multiply(square, square, square);
+        GradientTape tape = new GradientTape(product);
+        // x, y, x + y, and the product
+        assertEquals(4, tape.length());
+        double[] gradient = new double[2];
+        assertEquals(27, tape.gradient(new double[] { 1, 2 }, gradient), 0);
+        assertArrayEquals(new double[] { 27, 27 }, gradient, 0);
+    }
+
+    @Test
+    public void testManyVariables() {
+        // sum over i of v_i * v_(i+1), with 300 variables
+        StringBuilder input = new StringBuilder();
+        int n = 300;
+        for (int i = 0; i < n - 1; i++) {
+            if (i > 0) {
+                input.append(" + ");
+            }
+            input.append(name(i)).append(" * ").append(name(i + 1));
+        }
+        GradientTape tape = new GradientTape(Expression.parse(input.toString()));
+        assertEquals(n, tape.variables().size());
+        double[] point = new double[n];
+        for (int i = 0; i < n; i++) {
+            point[tape.variables().indexOf(name(i))] = i;
+        }
+        double[] gradient = new double[n];
+        tape.gradient(point, gradient);
+        for (int i = 0; i < n; i++) {
+            double expected = (i > 0 ? i - 1 : 0) + (i < n - 1 ? i + 1 : 0);
+            assertEquals(name(i), expected, gradient[tape.variables().indexOf(name(i))], 0);
+        }
+    }
+
+    // A variable name for i: letters only
+    private static String name(int i) {
+        return "v" + Integer.toString(i, 10).chars()
+                .mapToObj(c -> String.valueOf((char) ('a' + c - '0')))
+                .reduce("", String::concat);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGradientTooShort() {
+        new GradientTape(Expression.parse("x * y")).gradient(new double[] { 1, 2 }, new double[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        new GradientTape(Expression.parse("x * y")).gradient(environment);
+    }
+}
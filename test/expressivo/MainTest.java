@@ -0,0 +1,132 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the console display and the batch mode of Main.
+ */
+public class MainTest {
+
+    // Testing strategy
+    //   display: short, too long to print in full
+    //   batch: script files, standard input; expressions, commands, blank lines, errors,
+    //     input nested too deeply, command before any expression; with and without --timing
+    //   generate: with settings
+
+    // Run main with args and in as standard input, and return {standard output, standard error}
+    private static String[] run(String in, String... args) throws IOException {
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(in.getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(out, true, "UTF-8"));
+            System.setErr(new PrintStream(err, true, "UTF-8"));
+            Main.main(args);
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return new String[] { out.toString("UTF-8"), err.toString("UTF-8") };
+    }
+
+    @Test
+    public void testDisplayTruncated() {
+        Expression small = Expression.parse("x * (y + 2)");
+        assertEquals(small.toString(), Main.display(small));
+
+        // 2^40 nodes as a tree, too large to print in full
+        Expression huge = Expression.parse("x + y");
+        for (int i = 0; i < 40; i++) {
+            huge = ExpressionFactory.multiply(huge, huge);
+        }
+        String text = Main.display(huge);
+        assertTrue(text, text.length() < 2100);
+        assertTrue(text, text.endsWith("... (" + huge.size() + " nodes)"));
+        assertTrue(text, text.startsWith("((((("));
+    }
+
+    @Test
+    public void testBatchStandardInput() throws IOException {
+        String script = "!d/dx\nx * x * y\n\n!d/dx\n!simplify x=2 y=3\n1 +\n!d/d 1\n";
+        String[] lines = run(script, "--batch")[0].split("\n", -1);
+        assertEquals(7, lines.length);
+        assertEquals("Error: You must enter an expression before using this command.", lines[0]);
+        assertEquals("(x * x * y)", lines[1]);
+        assertEquals("((x * y) + (x * y))", lines[2]);
+        assertEquals("12.0", lines[3]);
+        assertTrue(lines[4], lines[4].startsWith("Error: java.lang.IllegalArgumentException"));
+        assertTrue(lines[5], lines[5].startsWith("Error: expressivo.Main$CommandSyntaxException"));
+        assertEquals("", lines[6]);
+    }
+
+    @Test
+    public void testBatchDeepInput() throws IOException {
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            deep.append('(');
+        }
+        deep.append('x');
+        for (int i = 0; i < 200_000; i++) {
+            deep.append(')');
+        }
+        // nested far deeper than the call stack could recurse
+        String[] lines = run(deep + "\ny\n", "--batch")[0].split("\n", -1);
+        assertEquals(3, lines.length);
+        assertEquals("x", lines[0]);
+        assertEquals("y", lines[1]);
+    }
+
+    @Test
+    public void testBatchScriptsWithTiming() throws IOException {
+        File first = File.createTempFile("script", ".txt");
+        File second = File.createTempFile("script", ".txt");
+        try {
+            Files.write(first.toPath(), Arrays.asList("x * (x + 1)"));
+            Files.write(second.toPath(), Arrays.asList("!d/dx", "!simplify x=1"));
+            String[] output = run("", "--batch", "--timing", first.getPath(), second.getPath());
+            assertEquals("(x * (x + 1.0))\n((x + 1.0) + x)\n3.0\n", output[0]);
+            String[] timings = output[1].split("\n");
+            assertEquals(4, timings.length);
+            assertTrue(timings[0], timings[0].startsWith(first.getPath() + ":1: "));
+            assertTrue(timings[2], timings[2].startsWith(second.getPath() + ":2: "));
+            assertTrue(timings[3], timings[3].startsWith("3 inputs in "));
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    @Test
+    public void testGenerate() throws IOException {
+        File corpus = File.createTempFile("corpus", ".txt");
+        try {
+            String[] output = run("", "--generate", corpus.getPath(), "20", "seed=3", "nodes=5-9", "repetition=0.5");
+            CorpusGenerator generator = CorpusGenerator.builder().seed(3).nodes(5, 9).repetition(0.5).build();
+            List<String> lines = Files.readAllLines(corpus.toPath(), StandardCharsets.US_ASCII);
+            assertEquals(20, lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals(generator.text(i), lines.get(i));
+            }
+            assertTrue(output[1], output[1].startsWith("20 lines, " + corpus.length() + " bytes in "));
+        } finally {
+            corpus.delete();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for ParseCache.
+ */
+public class ParseCacheTest {
+
+    // Testing strategy
+    //   parse: miss, hit, invalid input
+    //   maximumSize: less than, at least the concurrency level
+    //   eviction: entry used once, entry used more than once
+    //   setMaximumSize: shrink, zero, grow past the concurrency level
+
+    @Test
+    public void testHitAndMiss() {
+        ParseCache cache = new ParseCache(10, 1);
+        Expression first = cache.parse("x + 1");
+        Expression second = cache.parse("x + 1");
+        assertEquals(Expression.parse("x + 1"), first);
+        assertSame(first, second);
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInput() {
+        ParseCache cache = new ParseCache(10, 1);
+        try {
+            cache.parse("x +");
+        } finally {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void testSmallCacheHitsOnEveryInput() {
+        for (int maximumSize = 1; maximumSize <= 20; maximumSize++) {
+            ParseCache cache = new ParseCache(maximumSize);
+            for (int i = 0; i < 100; i++) {
+                Expression first = cache.parse("z * " + i);
+                assertSame("maximumSize " + maximumSize + ", input " + i, first, cache.parse("z * " + i));
+            }
+            assertEquals(100, cache.hitCount());
+            assertEquals(maximumSize, cache.size());
+        }
+    }
+
+    @Test
+    public void testFrequentlyUsedEntrySurvivesScan() {
+        ParseCache cache = new ParseCache(3, 1);
+        Expression hot = cache.parse("x * y");
+        cache.parse("x * y");
+        for (int i = 0; i < 10; i++) {
+            cache.parse("x + " + i);
+        }
+        assertSame(hot, cache.parse("x * y"));
+        assertEquals(3, cache.size());
+        assertEquals(8, cache.evictionCount());
+    }
+
+    @Test
+    public void testSetMaximumSize() {
+        ParseCache cache = new ParseCache(10, 1);
+        for (int i = 0; i < 10; i++) {
+            cache.parse("y * " + i);
+        }
+        cache.setMaximumSize(2);
+        assertEquals(2, cache.getMaximumSize());
+        assertTrue(cache.size() <= 2);
+        assertEquals(10 - cache.size(), cache.evictionCount());
+
+        cache.setMaximumSize(0);
+        assertEquals(0, cache.size());
+        cache.parse("y");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSetMaximumSizeChangesSegments() {
+        ParseCache cache = new ParseCache(4, 16);
+        Expression kept = cache.parse("w + 1");
+        cache.setMaximumSize(100);
+        assertEquals(1, cache.size());
+        assertSame(kept, cache.parse("w + 1"));
+        for (int i = 0; i < 50; i++) {
+            cache.parse("w * " + i);
+        }
+        assertEquals(51, cache.size());
+
+        cache.setMaximumSize(3);
+        assertEquals(3, cache.size());
+        assertEquals(48, cache.evictionCount());
+        assertSame(kept, cache.parse("w + 1"));
+        assertEquals(2, cache.hitCount());
+    }
+}
@@ -0,0 +1,121 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Polynomial.
+ */
+public class PolynomialTest {
+
+    // Testing strategy
+    //   of: number, zero, variable, sum, product, product of sums, shared subtrees,
+    //     more than four variables, exponent too large, depth far beyond the call stack
+    //   toExpression: zero, constant, one term, several terms in canonical order
+    //   equals: equal in value but different trees, unequal
+    //   add, multiply: same variables, different variables
+    //   differentiate: variable present, absent; repeated
+    //   evaluate: matches the expression; missing variable
+
+    @Test
+    public void testCanonicalExpression() {
+        assertEquals("0.0", Polynomial.of(Expression.parse("x * 0")).toString());
+        assertEquals("6.0", Polynomial.of(Expression.parse("2 * 3")).toString());
+        assertEquals("x", Polynomial.of(Expression.parse("x")).toString());
+        assertEquals("((x * x) + (2.0 * x * y) + (y * y) + (3.0 * x) + 1.0)",
+                Polynomial.of(Expression.parse("(x + y) * (y + x) + 3 * x + 1")).toString());
+        assertEquals("((x * x * x) + (3.0 * x * x) + (2.0 * x))",
+                Polynomial.of(Expression.parse("x * (x + 1) * (x + 2)")).toString());
+    }
+
+    @Test
+    public void testEqualInValue() {
+        Polynomial p = Polynomial.of(Expression.parse("(x + 1) * (x + 1)"));
+        Polynomial q = Polynomial.of(Expression.parse("x * x + 2 * x + 1 + y * 0"));
+        assertEquals(p, q);
+        assertEquals(p.hashCode(), q.hashCode());
+        assertEquals(p.toExpression(), q.toExpression());
+        assertEquals(Arrays.asList("x"), q.variables());
+        assertEquals(3, q.terms());
+        assertNotEquals(p, Polynomial.of(Expression.parse("x * x + 1")));
+    }
+
+    @Test
+    public void testAddAndMultiply() {
+        Polynomial x = Polynomial.of(Expression.parse("x + 1"));
+        Polynomial y = Polynomial.of(Expression.parse("y + 1"));
+        assertEquals(Polynomial.of(Expression.parse("x + y + 2")), x.add(y));
+        assertEquals(Polynomial.of(Expression.parse("x * y + x + y + 1")), x.multiply(y));
+        assertEquals(Polynomial.of(Expression.parse("2 * x + 2")), x.add(x));
+    }
+
+    @Test
+    public void testManyVariables() {
+        Expression e = Expression.parse("(a + b + c + d + e + f) * (a + f) * g");
+        Map<String, Double> environment = new HashMap<>();
+        double value = 1;
+        for (String name : new String[] { "a", "b", "c", "d", "e", "f", "g" }) {
+            environment.put(name, value += 0.5);
+        }
+        Polynomial p = Polynomial.of(e);
+        assertEquals(e.evaluate(environment), p.evaluate(environment), 1e-9);
+        assertEquals(p, Polynomial.of(p.toExpression()));
+        assertEquals(Polynomial.of(e.differentiate("f")), p.differentiate("f"));
+    }
+
+    @Test
+    public void testRepeatedDifferentiate() {
+        Polynomial p = Polynomial.of(Expression.parse("x * x * x * y + x * (x + 1) * (x + 2) * (x + 3)"));
+        assertEquals(Polynomial.of(Expression.parse("3 * x * x * y + 4 * x * x * x + 18 * x * x + 22 * x + 6")),
+                p.differentiate("x"));
+        assertEquals("24.0", p.differentiate("x").differentiate("x").differentiate("x").differentiate("x").toString());
+        assertEquals("0.0", p.differentiate("z").toString());
+    }
+
+    @Test
+    public void testSharedSubtreesExpandedOnce() {
+        // the 6th derivative, as a tree, has over 10^8 nodes
+        StringBuilder input = new StringBuilder("x");
+        for (int k = 1; k < 16; k++) {
+            input.append(" * (x + ").append(k).append(")");
+        }
+        Expression e = Expression.parse(input.toString());
+        for (int n = 1; n <= 6; n++) {
+            e = e.differentiate("x");
+        }
+        Polynomial p = Polynomial.of(e);
+        // degree 16 - 6
+        assertEquals(11, p.terms());
+    }
+
+    @Test
+    public void testDeep() {
+        // ((x + 1) * 1 + 1) * 1 + ..., far deeper than the call stack could recurse
+        Expression e = ExpressionFactory.variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            e = ExpressionFactory.multiply(ExpressionFactory.add(e, ExpressionFactory.number(1)),
+                    ExpressionFactory.number(1));
+        }
+        assertEquals("(x + 100000.0)", Polynomial.of(e).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExponentTooLarge() {
+        Expression x = Expression.parse("x");
+        Expression power = x;
+        for (int i = 0; i < 15; i++) {
+            power = ExpressionFactory.multiply(power, power);
+        }
+        Polynomial.of(power);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateMissingVariable() {
+        Polynomial.of(Expression.parse("x + y")).evaluate(new HashMap<>());
+    }
+}
@@ -0,0 +1,120 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Program.
+ */
+public class ProgramTest {
+
+    // Testing strategy
+    //   expression: number, variable, sum, product, nested, repeated constants and variables
+    //   of/toExpression: round trip, equal expressions give equal programs
+    //   evaluate: array, map, missing variable
+    //   differentiate: variable present, absent; n-ary product
+    //   toString: same as the expression
+    //   depth: far beyond the call stack, for every operation
+
+    private static final String[] INPUTS = {
+        "2.5", "0", "x", "x + 1", "x * y * 3", "(x + y) * (x + 0.5) + z * z * z",
+        "(x * (y + (z * (x + 2)))) + 4", "((x + y) * z + 1) * (y + 2) * x", "x * x * x + 2 * 2 * y"
+    };
+
+    @Test
+    public void testRoundTrip() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            Program program = Program.of(expression);
+            assertEquals(input, expression, program.toExpression());
+            assertEquals(input, expression.size(), program.length());
+            assertEquals(input, Program.of(Expression.parse(input)), program);
+            assertEquals(input, Program.of(Expression.parse(input)).hashCode(), program.hashCode());
+        }
+    }
+
+    @Test
+    public void testToStringMatchesExpression() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            assertEquals(input, expression.toString(), Program.of(expression).toString());
+        }
+    }
+
+    @Test
+    public void testEvaluateMatchesExpression() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.25);
+        environment.put("y", 3.0);
+        environment.put("z", 0.75);
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            assertEquals(input, expression.evaluate(environment), Program.of(expression).evaluate(environment), 0);
+        }
+    }
+
+    @Test
+    public void testVariablesInOrderOfAppearance() {
+        Program program = Program.of(Expression.parse("b * a + c * b"));
+        assertEquals(Arrays.asList("b", "a", "c"), program.variables());
+        assertEquals(2 * 5 + 4 * 2, program.evaluate(new double[] { 2, 5, 4 }), 0);
+    }
+
+    @Test
+    public void testDifferentiateMatchesExpression() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.25);
+        environment.put("y", 3.0);
+        environment.put("z", 0.75);
+        environment.put("w", 2.0);
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            for (String var : new String[] { "x", "y", "w" }) {
+                Program derivative = Program.of(expression).differentiate(var);
+                assertEquals(input + " d/d" + var, expression.differentiate(var).evaluate(environment),
+                        derivative.toExpression().evaluate(environment), 1e-9);
+            }
+        }
+        assertEquals("((1.0 * y * z) + (x * 0.0 * z) + (x * y * 0.0))",
+                Program.of(Expression.parse("x * y * z")).differentiate("x").toString());
+    }
+
+    @Test
+    public void testDeep() {
+        // ((x * y + 2) * y + 3) * y + ..., far deeper than the call stack could recurse
+        Expression expression = ExpressionFactory.variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            expression = ExpressionFactory.add(ExpressionFactory.multiply(expression, ExpressionFactory.variable("y")),
+                    ExpressionFactory.number(i % 7 + 2));
+        }
+        Program program = Program.of(expression);
+        assertEquals(expression, program.toExpression());
+        assertEquals(expression.toString(), program.toString());
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        environment.put("y", 1.0);
+        assertEquals(program.toExpression().evaluate(environment), program.evaluate(environment), 0);
+
+        // x * y + (x * y + (... + x)), whose derivative is not much larger
+        Expression sum = ExpressionFactory.variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            sum = ExpressionFactory.add(ExpressionFactory.multiply(ExpressionFactory.variable("x"),
+                    ExpressionFactory.variable("y")), sum);
+        }
+        Program derivative = Program.of(sum).differentiate("x");
+        assertEquals(100_001, derivative.evaluate(environment), 0);
+        assertEquals(derivative.toExpression().toString(), derivative.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVariable() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        Program.of(Expression.parse("x + y")).evaluate(environment);
+    }
+}